@@ -0,0 +1,31 @@
+package com.example.rediscontributedlock.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+@Configuration
+public class CourseExecutorConfig {
+
+    @Value("${course.enrollment-executor.threads:16}")
+    private int enrollmentThreads;
+
+    /**
+     * 非同步選課（CourseService.enrollCourseV1Async）取得鎖後執行資料庫操作的執行緒池，
+     * 應用程式關閉時由 Spring 關閉，並等待進行中的選課寫完（持有的鎖也會在那之後釋放）。
+     */
+    @Bean
+    public ThreadPoolTaskExecutor enrollmentExecutor() {
+        if (enrollmentThreads <= 0) {
+            throw new IllegalStateException("course.enrollment-executor.threads 必須大於 0，目前為 " + enrollmentThreads);
+        }
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(enrollmentThreads);
+        executor.setMaxPoolSize(enrollmentThreads);
+        executor.setThreadNamePrefix("enrollment-");
+        executor.setWaitForTasksToCompleteOnShutdown(true);
+        executor.setAwaitTerminationSeconds(30);
+        return executor;
+    }
+}
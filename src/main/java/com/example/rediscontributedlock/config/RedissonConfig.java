@@ -7,6 +7,7 @@ import org.redisson.codec.JsonJacksonCodec;
 import org.redisson.config.Config;
 import org.redisson.spring.data.connection.RedissonConnectionFactory;
 import org.redisson.spring.transaction.RedissonTransactionManager;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Primary;
@@ -16,6 +17,12 @@ import org.springframework.transaction.annotation.EnableTransactionManagement;
 @EnableTransactionManagement
 public class RedissonConfig {
 
+    @Value("${redis.host:127.0.0.1}")
+    private String redisHost;
+
+    @Value("${redis.port:6379}")
+    private int redisPort;
+
     @Bean
     @Primary
     public RedissonClient redissonClient() {
@@ -26,7 +33,7 @@ public class RedissonConfig {
 
         // 配置 Redis 單節點和連接池設置
         config.useSingleServer()
-            .setAddress("redis://127.0.0.1:6379")
+            .setAddress("redis://" + redisHost + ":" + redisPort)
             .setConnectionPoolSize(64)              // 設置連接池大小
             .setConnectionMinimumIdleSize(16)       // 設置最小閒置連接數
             .setTimeout(3000);                      // 設置連接超時時間（毫秒）
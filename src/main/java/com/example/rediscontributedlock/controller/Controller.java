@@ -1,9 +1,16 @@
 package com.example.rediscontributedlock.controller;
 
 
+import com.example.rediscontributedlock.lock.AsyncLocks;
+import com.example.rediscontributedlock.lock.DistributedLock;
+import com.example.rediscontributedlock.lock.DistributedLockFactory;
+import com.example.rediscontributedlock.lock.LockKeys;
+import com.example.rediscontributedlock.lock.LockMetrics;
+import com.example.rediscontributedlock.lock.LockOwnerIds;
 import lombok.extern.slf4j.Slf4j;
 import org.redisson.api.*;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
 import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.web.bind.annotation.GetMapping;
@@ -14,6 +21,7 @@ import java.time.format.DateTimeFormatter;
 import java.util.List;
 import java.util.Objects;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeUnit;
@@ -23,6 +31,7 @@ import java.util.concurrent.TimeUnit;
  */
 @Slf4j
 @RestController
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
 @RequestMapping("/rediscontributedlock/api")
 public class Controller<T> {
 
@@ -32,7 +41,14 @@ public class Controller<T> {
     @Autowired
     private RedisTemplate<String, Object> redisTemplate;
 
-    private final String KEY = "ContributeLock";
+    @Autowired
+    private DistributedLockFactory distributedLockFactory;
+
+    @Autowired
+    private LockMetrics lockMetrics;
+
+    //示範用的鎖不保護任何資料，和搶票、紅包的鎖分開，互不阻塞
+    private final String KEY = LockKeys.demo();
 
     /**
      * @author vanliou
@@ -236,6 +252,40 @@ public class Controller<T> {
         }
     }
 
+    /**
+     * @method 分散式鎖，V6。
+     * @description V1~V5 取鎖失敗時 Thread.sleep(1000) 再遞歸呼叫自己，每次重試白等最多一秒，競爭激烈時還可能棧溢位。
+     * V6 把 V5 的 setnx + 比對刪除包裝成 DistributedLock，取鎖失敗時交給等待策略：
+     * pubsub：解鎖時發佈通知，等待者在釋放後數毫秒內被喚醒重試；
+     * backoff：指數退避加隨機抖動。
+     * 以迴圈重試，不再遞歸。
+     */
+    @GetMapping("/getLockV6")
+    public void getLockV6() throws Exception {
+        Long threadId = Thread.currentThread().getId();
+        DistributedLock lock = distributedLockFactory.getLock(KEY);
+        LockMetrics.Tracker tracker = lockMetrics.begin(KEY);
+        boolean locked = false;
+        try {
+            locked = lock.tryLock(30, TimeUnit.SECONDS);
+        } finally {
+            tracker.acquired(locked);
+        }
+        if (!locked) {
+            log.info("用戶{}沒有取得鎖", threadId);
+            return;
+        }
+        try {
+            log.info("用戶{}順利取到鎖", threadId);
+            //商業邏輯時間
+            Thread.sleep(5000);
+            log.info("用戶{}執行完業務邏輯", threadId);
+        } finally {
+            lock.unlock();
+            tracker.released();
+        }
+    }
+
 
     /**
      * @author vanliou
@@ -264,8 +314,10 @@ public class Controller<T> {
         Long threadId = Thread.currentThread().getId();
         log.info("用户{}已進入", threadId);
         RLock lock = redissonClient.getLock(KEY);
+        LockMetrics.Tracker tracker = lockMetrics.begin(KEY);
         try {
             lock.lock();
+            tracker.acquired(true);
             LocalDateTime currentDateTime = LocalDateTime.now();
             String startTime = currentDateTime.format(formatter);
             log.info("用户{}取得鎖{}", threadId, startTime);
@@ -285,18 +337,42 @@ public class Controller<T> {
                 lock.unlock();
                 log.info("用户{}成功釋放鎖{}", threadId, endTime);
             }
+            tracker.released();
         }
     }
 
+    /**
+     * @method 分散式鎖，Redisson 非同步版。
+     * @description getLockByRedissonV1 在等鎖與 35 秒業務期間都佔住一條 servlet 執行緒。
+     * 此版本用 lockAsync 取鎖，鎖的持有者是邏輯任務 ID，業務等待以 delayedExecutor 排程，回傳 CompletableFuture，
+     * 整段期間不佔用任何執行緒，少量執行緒即可同時掛住大量等待中的請求。
+     */
+    @GetMapping("/getLockByRedissonAsync")
+    public CompletableFuture<Void> getLockByRedissonAsync() {
+        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+        long taskId = LockOwnerIds.next();
+        log.info("任務{}已進入", taskId);
+        RLock lock = redissonClient.getLock(KEY);
+        return AsyncLocks.withLock(lock, taskId, lockMetrics.begin(KEY), () -> {
+            log.info("任務{}取得鎖{}", taskId, LocalDateTime.now().format(formatter));
+            // 進行業務邏輯處理
+            return CompletableFuture.runAsync(
+                () -> log.info("任務{}完成業務邏輯:{}", taskId, LocalDateTime.now().format(formatter)),
+                CompletableFuture.delayedExecutor(35, TimeUnit.SECONDS));
+        }).thenRun(() -> log.info("任務{}成功釋放鎖{}", taskId, LocalDateTime.now().format(formatter)));
+    }
+
     @GetMapping("/getTryLockByRedissonV1")
     public void getTryLockByRedissonV1() throws InterruptedException {
         DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
         Long threadId = Thread.currentThread().getId();
         log.info("用户{}已進入", threadId);
         RLock lock = redissonClient.getLock(KEY);
+        LockMetrics.Tracker tracker = lockMetrics.begin(KEY);
         boolean success;
         try {
             success = lock.tryLock();
+            tracker.acquired(success);
             if(success){
                 LocalDateTime currentDateTime = LocalDateTime.now();
                 String startTime = currentDateTime.format(formatter);
@@ -321,6 +397,7 @@ public class Controller<T> {
                 lock.unlock();
                 log.info("用户{}成功釋放鎖{}", threadId, endTime);
             }
+            tracker.released();
         }
     }
 
@@ -330,8 +407,10 @@ public class Controller<T> {
         Long threadId = Thread.currentThread().getId();
         log.info("用户{}已進入", threadId);
         RLock lock = redissonClient.getFairLock(KEY);
+        LockMetrics.Tracker tracker = lockMetrics.begin(KEY);
         try {
             lock.lock();
+            tracker.acquired(true);
             LocalDateTime currentDateTime = LocalDateTime.now();
             String startTime = currentDateTime.format(formatter);
             log.info("用户{}取得鎖{}", threadId, startTime);
@@ -351,6 +430,7 @@ public class Controller<T> {
                 lock.unlock();
                 log.info("用户{}成功釋放鎖{}", threadId, endTime);
             }
+            tracker.released();
         }
     }
 
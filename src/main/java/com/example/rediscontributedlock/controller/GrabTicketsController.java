@@ -1,39 +1,101 @@
 package com.example.rediscontributedlock.controller;
 
+import com.example.rediscontributedlock.lock.AsyncLocks;
+import com.example.rediscontributedlock.lock.LocalFirstLockManager;
+import com.example.rediscontributedlock.lock.LockKeys;
+import com.example.rediscontributedlock.lock.LockMetrics;
+import com.example.rediscontributedlock.lock.LockOwnerIds;
+import com.example.rediscontributedlock.model.Result;
+import com.example.rediscontributedlock.service.FlashSaleQueueService;
+import com.example.rediscontributedlock.service.PermitInventoryService;
+import com.example.rediscontributedlock.service.RedisScripts;
+import com.example.rediscontributedlock.service.SoldOutFlagService;
 import io.netty.util.internal.ObjectUtil;
 import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RBucket;
 import org.redisson.api.RLock;
 import org.redisson.api.RedissonClient;
+import org.redisson.client.codec.StringCodec;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.client.RestTemplate;
+import org.springframework.web.context.request.async.DeferredResult;
 
+import javax.annotation.PostConstruct;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 @Slf4j
 @RestController
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
 @RequestMapping("/grabTickets/api")
 public class GrabTicketsController {
     @Autowired
     RedisTemplate<String, Object> redisTemplate;
 
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+
     @Autowired
     private RedissonClient redissonClient;
 
+    @Autowired
+    private SoldOutFlagService soldOutFlagService;
+
+    @Autowired
+    private LocalFirstLockManager localFirstLockManager;
+
+    @Autowired
+    private LockMetrics lockMetrics;
+
+    @Autowired
+    private PermitInventoryService permitInventoryService;
+
+    @Autowired
+    private FlashSaleQueueService flashSaleQueueService;
+
     private final String TICKET_KEY = "tickets:quantity";
 
-    private final String KEY = "ContributeLock";
+    //只保護票數，和 tickets:quantity 位於同一個 slot
+    private final String KEY = LockKeys.forKey(TICKET_KEY);
 
-    @GetMapping("/setTicketsQuantity")
-    public void setTicketsQuantity() throws Exception {
+    //permit 模式的庫存，以 RPermitExpirableSemaphore 表示，和 tickets:quantity 互相獨立
+    private final String TICKET_PERMITS_KEY = "tickets:permits";
+
+    /**
+     * 分片庫存的鍵名前綴，每個分片帶有各自的 hash tag，讓 Redis Cluster 可以把分片放在不同的 slot。
+     */
+    private final String TICKET_SHARD_KEY_PREFIX = "tickets:quantity:shard:";
+
+    @Value("${tickets.shard-count:4}")
+    private int shardCount;
+
+    //分片數為 0 時取模會除以零、補貨迴圈不寫入任何分片，啟動時就擋下
+    @PostConstruct
+    public void validateShardCount() {
+        if (shardCount <= 0) {
+            throw new IllegalStateException("tickets.shard-count 必須大於 0，目前為 " + shardCount);
+        }
+    }
 
-        int quantity = 10;
+    @GetMapping("/setTicketsQuantity")
+    public void setTicketsQuantity(@RequestParam(defaultValue = "10") int quantity) throws Exception {
 
-        redisTemplate.opsForValue().set(TICKET_KEY, String.valueOf(quantity));
+        //票數以純整數字串儲存，讓 Lua 腳本可以直接 DECR
+        stringRedisTemplate.opsForValue().set(TICKET_KEY, String.valueOf(quantity));
+        soldOutFlagService.reset(TICKET_KEY);
 
     }
 
@@ -42,30 +104,23 @@ public class GrabTicketsController {
         DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
         long threadId = Thread.currentThread().getId();
         log.info("用户{}已進入", threadId);
+        //已售完時直接拒絕，不取鎖也不讀 Redis
+        if (soldOutFlagService.isSoldOut(TICKET_KEY)) {
+            log.info("用戶{}==無法==取得票，票已售完", threadId);
+            return;
+        }
         redissonClient.getFairLock(KEY);
         RLock lock = redissonClient.getLock(KEY);
+        LockMetrics.Tracker tracker = lockMetrics.begin(KEY);
         try {
             lock.lock();
-            String valueStr = (String) redisTemplate.opsForValue().get(TICKET_KEY);
+            tracker.acquired(true);
             LocalDateTime currentDateTime = LocalDateTime.now();
             String startTime = currentDateTime.format(formatter);
            // log.info("用户{}取得鎖{}", threadId, startTime);
 
             // 進行業務邏輯處理
-            if (valueStr != null){
-                int value = Integer.parseInt(valueStr);
-                if(value > 0){
-                    value--;
-                    valueStr = String.valueOf(value);
-                    redisTemplate.opsForValue().set(TICKET_KEY,valueStr);
-                    log.info("用戶{}取得票，目前票數{}，剩餘票數{}",threadId,value,valueStr);
-                }else {
-                    log.info("用戶{}==無法==取得票，剩餘票數{}",threadId,value);
-                }
-
-            }else{
-                log.info("redis無票數的緩存");
-            }
+            sellOneTicket(threadId);
 
             LocalDateTime currentDateTime2 = LocalDateTime.now();
             String logicTime = currentDateTime2.format(formatter);
@@ -82,6 +137,349 @@ public class GrabTicketsController {
                 lock.unlock();
                 log.info("用户{}成功釋放鎖{}", threadId, endTime);
             }
+            tracker.released();
+        }
+    }
+
+    /**
+     * @method 兩層鎖搶票。
+     * @description 和 getTicket 相同的臨界區，但同一個節點的執行緒先在本地排隊，只有本地勝出者才去搶 Redisson 鎖，
+     * 持有者釋放時若本地還有人在等，直接把分散式鎖交給下一個本地執行緒，Redis 的鎖流量約降為原本的 1 / 每節點並發數。
+     */
+    @GetMapping("/getTicketByLocalFirstLock")
+    public void getTicketByLocalFirstLock() {
+        long threadId = Thread.currentThread().getId();
+        if (soldOutFlagService.isSoldOut(TICKET_KEY)) {
+            log.info("用戶{}==無法==取得票，票已售完", threadId);
+            return;
+        }
+        LockMetrics.Tracker tracker = lockMetrics.begin(KEY);
+        boolean locked = false;
+        try {
+            localFirstLockManager.lock(KEY);
+            locked = true;
+        } finally {
+            tracker.acquired(locked);
+        }
+        try {
+            sellOneTicket(threadId);
+        } catch (Exception ex) {
+            log.error("系統錯誤:{}", ex.getMessage());
+        } finally {
+            localFirstLockManager.unlock(KEY);
+            tracker.released();
+        }
+    }
+
+    /**
+     * @method 非同步搶票。
+     * @description 和 getTicket 相同的鎖與臨界區，但改用 Redisson 的 lockAsync 與 RBucket 非同步 API，
+     * 鎖的持有者是邏輯任務 ID 而不是執行緒，等鎖期間不佔用 servlet 執行緒。
+     */
+    @GetMapping("/getTicketAsync")
+    public CompletableFuture<Result<Long>> getTicketAsync() {
+        long taskId = LockOwnerIds.next();
+        Result<Long> result = new Result<>();
+        long generation = soldOutFlagService.generation(TICKET_KEY);
+        if (soldOutFlagService.isSoldOut(TICKET_KEY)) {
+            result.setResult(false);
+            result.setData(0L);
+            result.setMsg("票已售完");
+            return CompletableFuture.completedFuture(result);
+        }
+        RLock lock = redissonClient.getLock(KEY);
+        //票數以純整數字串儲存，和 stringRedisTemplate 一致
+        RBucket<String> bucket = redissonClient.getBucket(TICKET_KEY, StringCodec.INSTANCE);
+
+        return AsyncLocks.withLock(lock, taskId, lockMetrics.begin(KEY), () -> bucket.getAsync().toCompletableFuture().thenCompose(valueStr -> {
+            if (valueStr == null) {
+                log.info("redis無票數的緩存");
+                result.setResult(false);
+                result.setMsg("redis無票數的緩存");
+                return CompletableFuture.completedFuture(result);
+            }
+            long value = Long.parseLong(valueStr);
+            if (value <= 0) {
+                log.info("任務{}==無法==取得票，剩餘票數{}", taskId, value);
+                soldOutFlagService.markSoldOut(TICKET_KEY, generation);
+                result.setResult(false);
+                result.setData(0L);
+                result.setMsg("票已售完");
+                return CompletableFuture.completedFuture(result);
+            }
+            return bucket.setAsync(String.valueOf(value - 1)).toCompletableFuture().thenApply(v -> {
+                log.info("任務{}取得票，剩餘票數{}", taskId, value - 1);
+                result.setResult(true);
+                result.setData(value - 1);
+                result.setMsg("取得票");
+                return result;
+            });
+        }));
+    }
+
+    /**
+     * 需在持有鎖時呼叫：讀取票數，還有票就扣一張。
+     */
+    private void sellOneTicket(long threadId) {
+        long generation = soldOutFlagService.generation(TICKET_KEY);
+        String valueStr = stringRedisTemplate.opsForValue().get(TICKET_KEY);
+        if (valueStr != null){
+            int value = Integer.parseInt(valueStr);
+            if(value > 0){
+                value--;
+                valueStr = String.valueOf(value);
+                stringRedisTemplate.opsForValue().set(TICKET_KEY,valueStr);
+                log.info("用戶{}取得票，目前票數{}，剩餘票數{}",threadId,value,valueStr);
+            }else {
+                log.info("用戶{}==無法==取得票，剩餘票數{}",threadId,value);
+                soldOutFlagService.markSoldOut(TICKET_KEY, generation);
+            }
+
+        }else{
+            log.info("redis無票數的緩存");
+        }
+    }
+
+    /**
+     * @method 無鎖搶票。
+     * @description getTicket 需要先取得分散式鎖，再 GET、解析、SET 三次往返，所有節點的用戶都排在同一把鎖後面。
+     * 此模式把「檢查庫存 > 0 再扣減」寫成一段 Lua 腳本，由 Redis 單執行緒原子執行，一次往返即可完成，不需要任何分散式鎖。
+     */
+    @GetMapping("/getTicketByLua")
+    public Result<Long> getTicketByLua() {
+        long threadId = Thread.currentThread().getId();
+        Result<Long> result = new Result<>();
+        long generation = soldOutFlagService.generation(TICKET_KEY);
+        if (soldOutFlagService.isSoldOut(TICKET_KEY)) {
+            result.setResult(false);
+            result.setData(0L);
+            result.setMsg("票已售完");
+            return result;
+        }
+        Long remaining = stringRedisTemplate.execute(RedisScripts.DECREMENT_STOCK_SCRIPT, List.of(TICKET_KEY));
+
+        if (remaining == null || remaining == -2L) {
+            log.info("redis無票數的緩存");
+            result.setResult(false);
+            result.setMsg("redis無票數的緩存");
+        } else if (remaining == -1L) {
+            log.info("用戶{}==無法==取得票，票已售完", threadId);
+            soldOutFlagService.markSoldOut(TICKET_KEY, generation);
+            result.setResult(false);
+            result.setData(0L);
+            result.setMsg("票已售完");
+        } else {
+            log.info("用戶{}取得票，剩餘票數{}", threadId, remaining);
+            result.setResult(true);
+            result.setData(remaining);
+            result.setMsg("取得票");
+        }
+        return result;
+    }
+
+    @GetMapping("/setTicketsPermits")
+    public void setTicketsPermits(@RequestParam(defaultValue = "10") int quantity) {
+        permitInventoryService.setStock(TICKET_PERMITS_KEY, quantity);
+    }
+
+    /**
+     * @method permit 搶票。
+     * @description getTicket 的所有用戶排在同一把鎖後面，依序讀取、扣減票數。
+     * 此模式每張票是 RPermitExpirableSemaphore 的一個 permit，取得 permit 即保留一張票，不經過全域的臨界區，
+     * 隨即確認成交；保留後到確認前當機的話，permit 在租期到後自動歸還。
+     */
+    @GetMapping("/getTicketBySemaphore")
+    public Result<Long> getTicketBySemaphore() {
+        long threadId = Thread.currentThread().getId();
+        Result<Long> result = new Result<>();
+        String permitId = permitInventoryService.reserve(TICKET_PERMITS_KEY);
+        if (permitId == null || !permitInventoryService.confirm(TICKET_PERMITS_KEY, permitId)) {
+            log.info("用戶{}==無法==取得票，票已售完", threadId);
+            result.setResult(false);
+            result.setData(0L);
+            result.setMsg("票已售完");
+            return result;
+        }
+        long remaining = permitInventoryService.availablePermits(TICKET_PERMITS_KEY);
+        log.info("用戶{}取得票，剩餘票數{}", threadId, remaining);
+        result.setResult(true);
+        result.setData(remaining);
+        result.setMsg("取得票");
+        return result;
+    }
+
+    /**
+     * 保留一張票（permit），回傳 permitId，在 tickets.permit.lease-millis 內以 confirmTicketPermit 確認，否則自動歸還。
+     */
+    @GetMapping("/reserveTicketPermit")
+    public Result<String> reserveTicketPermit() {
+        String permitId = permitInventoryService.reserve(TICKET_PERMITS_KEY);
+        Result<String> result = new Result<>();
+        result.setResult(permitId != null);
+        result.setData(permitId);
+        result.setMsg(permitId != null ? "保留成功" : "票已售完");
+        return result;
+    }
+
+    @GetMapping("/confirmTicketPermit")
+    public Result<String> confirmTicketPermit(@RequestParam String permitId) {
+        boolean confirmed = permitInventoryService.confirm(TICKET_PERMITS_KEY, permitId);
+        Result<String> result = new Result<>();
+        result.setResult(confirmed);
+        result.setData(permitId);
+        result.setMsg(confirmed ? "確認成功" : "保留已逾時");
+        return result;
+    }
+
+    @GetMapping("/releaseTicketPermit")
+    public Result<String> releaseTicketPermit(@RequestParam String permitId) {
+        boolean released = permitInventoryService.release(TICKET_PERMITS_KEY, permitId);
+        Result<String> result = new Result<>();
+        result.setResult(released);
+        result.setData(permitId);
+        result.setMsg(released ? "已取消保留" : "保留已逾時");
+        return result;
+    }
+
+    /**
+     * @method 排隊搶票。
+     * @description 只把請求加入 Redis Stream 並立即回傳排隊號碼，由 FlashSaleConsumer 依序批次扣減 tickets:quantity；
+     * 之後以 getQueueResult 輪詢，或以 awaitQueueResult 等待結果推送。
+     */
+    @GetMapping("/enqueueTicket")
+    public Result<String> enqueueTicket(@RequestParam(required = false) String userId) {
+        String ticketId = flashSaleQueueService.enqueue(userId != null ? userId : String.valueOf(Thread.currentThread().getId()));
+        Result<String> result = new Result<>();
+        result.setResult(ticketId != null);
+        result.setData(ticketId);
+        result.setMsg(ticketId != null ? "排隊中" : "票已售完");
+        return result;
+    }
+
+    @GetMapping("/getQueueResult")
+    public Result<Long> getQueueResult(@RequestParam String ticketId) {
+        return queueResult(flashSaleQueueService.getResult(ticketId));
+    }
+
+    /**
+     * 長輪詢，結果出來時立即回覆，逾時（flash-sale.await-timeout-millis）時回覆當下狀態。
+     */
+    @GetMapping("/awaitQueueResult")
+    public DeferredResult<Result<Long>> awaitQueueResult(@RequestParam String ticketId) {
+        return flashSaleQueueService.awaitResult(ticketId, this::queueResult);
+    }
+
+    private Result<Long> queueResult(Long remaining) {
+        Result<Long> result = new Result<>();
+        result.setResult(remaining != null && remaining >= 0);
+        result.setData(remaining);
+        if (remaining == null) {
+            result.setMsg("排隊中");
+        } else if (remaining >= 0) {
+            result.setMsg("取得票");
+        } else {
+            result.setMsg(remaining == -1L ? "票已售完" : "redis無票數的緩存");
+        }
+        return result;
+    }
+
+    /**
+     * 把 quantity 張票拆到 tickets.shard-count 個分片。
+     */
+    @GetMapping("/setShardedTicketsQuantity")
+    public void setShardedTicketsQuantity(@RequestParam(defaultValue = "10") int quantity) {
+
+        //庫存平均分配到各分片，餘數由前面的分片多拿一張
+        for (int i = 0; i < shardCount; i++) {
+            int shardQuantity = quantity / shardCount + (i < quantity % shardCount ? 1 : 0);
+            stringRedisTemplate.opsForValue().set(shardKey(i), String.valueOf(shardQuantity));
+        }
+        soldOutFlagService.reset(TICKET_SHARD_KEY_PREFIX);
+    }
+
+    /**
+     * @method 分片庫存搶票。
+     * @description 全部庫存放在 tickets:quantity 一個鍵上，所有用戶都打到同一個節點的同一個 key。
+     * 此模式把庫存拆成 N 個子計數器，用戶依 buyerId 的雜湊值路由到某個分片，在該分片上用 Lua 原子扣減；
+     * 若該分片已售完，則依序嘗試下一個分片，直到所有分片都售完才回傳售完。
+     * 每個分片是單鍵腳本，因此在 Redis Cluster 上也不會有跨 slot 的問題。
+     * 取得票時 data 為所有分片合計的剩餘票數（扣減後再以 pipeline 讀取一次），和 getTicket 的意義相同。
+     */
+    @GetMapping("/getTicketBySharding")
+    public Result<Long> getTicketBySharding(@RequestParam(required = false) String buyerId) {
+        long threadId = Thread.currentThread().getId();
+        String buyer = buyerId != null ? buyerId : String.valueOf(threadId);
+        Result<Long> result = new Result<>();
+        long generation = soldOutFlagService.generation(TICKET_SHARD_KEY_PREFIX);
+        if (soldOutFlagService.isSoldOut(TICKET_SHARD_KEY_PREFIX)) {
+            result.setResult(false);
+            result.setData(0L);
+            result.setMsg("票已售完");
+            return result;
+        }
+
+        int start = Math.floorMod(buyer.hashCode(), shardCount);
+        boolean cached = false;
+        for (int i = 0; i < shardCount; i++) {
+            int shard = (start + i) % shardCount;
+            Long remaining = stringRedisTemplate.execute(RedisScripts.DECREMENT_STOCK_SCRIPT, List.of(shardKey(shard)));
+            if (remaining == null || remaining == -2L) {
+                continue;
+            }
+            cached = true;
+            if (remaining >= 0) {
+                log.info("用戶{}在分片{}取得票，該分片剩餘票數{}", buyer, shard, remaining);
+                result.setResult(true);
+                result.setData(shardedRemaining());
+                result.setMsg("取得票");
+                return result;
+            }
         }
+
+        result.setResult(false);
+        if (cached) {
+            log.info("用戶{}==無法==取得票，所有分片皆已售完", buyer);
+            soldOutFlagService.markSoldOut(TICKET_SHARD_KEY_PREFIX, generation);
+            result.setData(0L);
+            result.setMsg("票已售完");
+        } else {
+            log.info("redis無分片票數的緩存");
+            result.setMsg("redis無票數的緩存");
+        }
+        return result;
+    }
+
+    /**
+     * 以 pipeline 一次往返讀取所有分片，回傳合計的剩餘票數。
+     */
+    @GetMapping("/getShardedTicketsQuantity")
+    public Result<Long> getShardedTicketsQuantity() {
+        Result<Long> result = new Result<>();
+        result.setResult(true);
+        result.setData(shardedRemaining());
+        return result;
+    }
+
+    private long shardedRemaining() {
+        List<String> keys = new ArrayList<>(shardCount);
+        for (int i = 0; i < shardCount; i++) {
+            keys.add(shardKey(i));
+        }
+        List<Object> values = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            keys.forEach(key -> connection.stringCommands().get(key.getBytes(StandardCharsets.UTF_8)));
+            return null;
+        });
+
+        long total = 0;
+        for (Object value : values) {
+            if (value != null) {
+                total += Math.max(0, Long.parseLong(value.toString()));
+            }
+        }
+        return total;
+    }
+
+    private String shardKey(int shard) {
+        return TICKET_SHARD_KEY_PREFIX + "{" + shard + "}";
     }
 }
@@ -0,0 +1,74 @@
+package com.example.rediscontributedlock.controller;
+
+import com.example.rediscontributedlock.model.Result;
+import com.example.rediscontributedlock.service.InventoryService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 多場活動、多個 SKU 的搶購端點，GrabTicketsController 只管理 tickets:quantity 一個品項。
+ * 每個 SKU 有獨立的庫存鍵，同時進行的多場活動互不競爭。
+ */
+@Slf4j
+@RestController
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+@RequestMapping("/inventory/api")
+public class InventoryController {
+
+    @Autowired
+    private InventoryService inventoryService;
+
+    /**
+     * 批次載入一場活動的庫存，request body 為 SKU -> 數量，例如 {"A-001": 100, "A-002": 50}。
+     */
+    @PostMapping("/loadStock")
+    public Result<Integer> loadStock(@RequestParam String eventId, @RequestBody Map<String, Long> stockBySku) {
+        inventoryService.loadStock(eventId, stockBySku);
+        log.info("活動{}載入{}個 SKU 的庫存", eventId, stockBySku.size());
+        Result<Integer> result = new Result<>();
+        result.setResult(true);
+        result.setData(stockBySku.size());
+        result.setMsg("載入庫存");
+        return result;
+    }
+
+    @GetMapping("/grab")
+    public Result<Long> grab(@RequestParam String eventId, @RequestParam String sku) {
+        long remaining = inventoryService.grab(eventId, sku);
+        Result<Long> result = new Result<>();
+        if (remaining == -2L) {
+            result.setResult(false);
+            result.setMsg("redis無庫存的緩存");
+        } else if (remaining == -1L) {
+            result.setResult(false);
+            result.setData(0L);
+            result.setMsg("已售完");
+        } else {
+            result.setResult(true);
+            result.setData(remaining);
+            result.setMsg("搶購成功");
+        }
+        return result;
+    }
+
+    /**
+     * 一次往返查詢多個 SKU 的剩餘數量，不帶 skus 時查詢活動的所有 SKU。
+     */
+    @GetMapping("/remaining")
+    public Result<Map<String, Long>> getRemaining(@RequestParam String eventId, @RequestParam(required = false) List<String> skus) {
+        Result<Map<String, Long>> result = new Result<>();
+        result.setResult(true);
+        result.setData(inventoryService.getRemaining(eventId, skus));
+        return result;
+    }
+}
@@ -0,0 +1,174 @@
+package com.example.rediscontributedlock.controller;
+
+import com.example.rediscontributedlock.lock.LockKeys;
+import com.example.rediscontributedlock.lock.LockMetrics;
+import com.example.rediscontributedlock.lock.LockOwnerIds;
+import com.example.rediscontributedlock.model.Result;
+import com.example.rediscontributedlock.service.CourseService;
+import com.example.rediscontributedlock.service.RedEnvelopeKeys;
+import com.example.rediscontributedlock.service.RedisScripts;
+import com.example.rediscontributedlock.service.SoldOutFlagService;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RBucketReactive;
+import org.redisson.api.RDequeReactive;
+import org.redisson.api.RLockReactive;
+import org.redisson.api.RedissonReactiveClient;
+import org.redisson.client.codec.StringCodec;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import reactor.core.publisher.Mono;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * 搶票、搶紅包、選課的 reactive 版本，和阻塞式的 controller 使用相同的 Redis 鍵，方便直接比較。
+ * 鎖使用 RedissonReactiveClient，Lua 腳本使用 Lettuce 的 ReactiveStringRedisTemplate，整個請求不會停住任何執行緒。
+ * 只在 WebFlux 模式（reactive profile，Reactor Netty 的 event loop）下註冊；和 Tomcat 上的 Spring MVC 混用時
+ * Mono 只會經過 MVC 的 async dispatch，比不出 event loop 與阻塞式 stack 的差異。
+ */
+@Slf4j
+@RestController
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+@RequestMapping("/reactive/api")
+public class ReactiveController {
+
+    @Autowired
+    private RedissonReactiveClient redissonReactiveClient;
+
+    @Autowired
+    private ReactiveStringRedisTemplate reactiveRedisTemplate;
+
+    @Autowired
+    private CourseService courseService;
+
+    @Autowired
+    private LockMetrics lockMetrics;
+
+    @Autowired
+    private SoldOutFlagService soldOutFlagService;
+
+    private final String TICKET_KEY = "tickets:quantity";
+
+    private final String RED_POCKET_KEY = RedEnvelopeKeys.LIST_KEY;
+
+    private final String RED_POCKET_CLAIMED_KEY = RedEnvelopeKeys.CLAIMED_KEY;
+
+    private final String TICKET_LOCK_KEY = LockKeys.forKey(TICKET_KEY);
+
+    private final String RED_POCKET_LOCK_KEY = LockKeys.forKey(RED_POCKET_KEY);
+
+    /**
+     * 和 GrabTicketsController.getTicket 相同的鎖與臨界區，同樣先檢查售完旗標。
+     */
+    @GetMapping("/getTicket")
+    public Mono<Result<Long>> getTicket() {
+        long generation = soldOutFlagService.generation(TICKET_KEY);
+        if (soldOutFlagService.isSoldOut(TICKET_KEY)) {
+            return Mono.just(result(false, 0L, "票已售完"));
+        }
+        RBucketReactive<String> bucket = redissonReactiveClient.getBucket(TICKET_KEY, StringCodec.INSTANCE);
+        return withLock(TICKET_LOCK_KEY, taskId -> bucket.get()
+            .flatMap(valueStr -> {
+                long value = Long.parseLong(valueStr);
+                if (value <= 0) {
+                    soldOutFlagService.markSoldOut(TICKET_KEY, generation);
+                    return Mono.just(result(false, 0L, "票已售完"));
+                }
+                return bucket.set(String.valueOf(value - 1)).thenReturn(result(true, value - 1, "取得票"));
+            })
+            .defaultIfEmpty(result(false, null, "redis無票數的緩存")));
+    }
+
+    /**
+     * 和 GrabTicketsController.getTicketByLua 相同的 Lua 腳本，同樣先檢查售完旗標。
+     */
+    @GetMapping("/getTicketByLua")
+    public Mono<Result<Long>> getTicketByLua() {
+        long generation = soldOutFlagService.generation(TICKET_KEY);
+        if (soldOutFlagService.isSoldOut(TICKET_KEY)) {
+            return Mono.just(result(false, 0L, "票已售完"));
+        }
+        return reactiveRedisTemplate.execute(RedisScripts.DECREMENT_STOCK_SCRIPT, List.of(TICKET_KEY))
+            .next()
+            .map(remaining -> {
+                if (remaining == -2L) {
+                    return result(false, (Long) null, "redis無票數的緩存");
+                }
+                if (remaining == -1L) {
+                    soldOutFlagService.markSoldOut(TICKET_KEY, generation);
+                    return result(false, 0L, "票已售完");
+                }
+                return result(true, remaining, "取得票");
+            });
+    }
+
+    /**
+     * 和 RedEnvelopesController.grabRedEnvelopeAsync 相同的鎖，取出最後一個紅包。
+     */
+    @GetMapping("/grabRedEnvelope")
+    public Mono<Result<BigDecimal>> grabRedEnvelope() {
+        RDequeReactive<String> redEnvelopes = redissonReactiveClient.getDeque(RED_POCKET_KEY, StringCodec.INSTANCE);
+        return withLock(RED_POCKET_LOCK_KEY, taskId -> redEnvelopes.pollLast()
+            .map(stringValue -> result(true, new BigDecimal(stringValue), "取得紅包"))
+            .defaultIfEmpty(result(false, null, "沒有紅包")));
+    }
+
+    /**
+     * 和 RedEnvelopesController.claimRedEnvelope 相同的 Lua 腳本。
+     */
+    @GetMapping("/claimRedEnvelope")
+    public Mono<Result<BigDecimal>> claimRedEnvelope(@RequestParam String userId) {
+        return reactiveRedisTemplate.execute(RedisScripts.CLAIM_RED_ENVELOPE_SCRIPT,
+                List.of(RED_POCKET_KEY, RED_POCKET_CLAIMED_KEY), List.of(userId))
+            .next()
+            .map(reply -> {
+                long status = ((Number) reply.get(0)).longValue();
+                if (status == 1L) {
+                    return result(true, new BigDecimal(reply.get(1).toString()), "取得紅包");
+                }
+                return status == -1L
+                    ? result(false, new BigDecimal(reply.get(1).toString()), "已經領過紅包")
+                    : result(false, (BigDecimal) null, "沒有紅包");
+            });
+    }
+
+    @GetMapping("/enrollCourse")
+    public Mono<Result<Boolean>> enrollCourse(@RequestParam Long studentId, @RequestParam Long courseId, @RequestParam String seat) {
+        return courseService.enrollCourseV2Reactive(studentId, courseId, seat)
+            .map(enrolled -> result(enrolled, enrolled, enrolled ? "選課成功" : "選課失敗"));
+    }
+
+    /**
+     * 以 reactive 鎖包住 body，鎖的持有者是邏輯任務 ID，不論成功失敗都解鎖。
+     */
+    private <T> Mono<T> withLock(String key, Function<Long, Mono<T>> body) {
+        RLockReactive lock = redissonReactiveClient.getLock(key);
+        return Mono.defer(() -> {
+            LockMetrics.Tracker tracker = lockMetrics.begin(key);
+            long taskId = LockOwnerIds.next();
+            return Mono.usingWhen(
+                    lock.lock(-1, TimeUnit.MILLISECONDS, taskId)
+                        .doOnSuccess(v -> tracker.acquired(true))
+                        .thenReturn(taskId),
+                    body,
+                    lock::unlock)
+                .doFinally(signal -> tracker.released());
+        });
+    }
+
+    private static <T> Result<T> result(boolean success, T data, String msg) {
+        Result<T> result = new Result<>();
+        result.setResult(success);
+        result.setData(data);
+        result.setMsg(msg);
+        return result;
+    }
+}
@@ -1,12 +1,25 @@
 package com.example.rediscontributedlock.controller;
 
+import com.example.rediscontributedlock.lock.AsyncLocks;
+import com.example.rediscontributedlock.lock.LockKeys;
+import com.example.rediscontributedlock.lock.LockMetrics;
+import com.example.rediscontributedlock.lock.LockOwnerIds;
+import com.example.rediscontributedlock.model.Result;
+import com.example.rediscontributedlock.service.RedEnvelopeKeys;
+import com.example.rediscontributedlock.service.RedisScripts;
 import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RDeque;
 import org.redisson.api.RLock;
 import org.redisson.api.RedissonClient;
+import org.redisson.client.codec.StringCodec;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
 import java.math.BigDecimal;
@@ -15,21 +28,61 @@ import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
 
 @Slf4j
 @RestController
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
 @RequestMapping("/redEnvelope/api")
 public class RedEnvelopesController {
 
     @Autowired
     RedisTemplate<String, Object> redisTemplate;
-    private final String RED_POCKET_KEY = "redEnvelope:list";
-    private final String KEY = "ContributeLock";
+
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+    //兩個鍵帶有相同的 hash tag，見 RedEnvelopeKeys
+    private final String RED_POCKET_KEY = RedEnvelopeKeys.LIST_KEY;
+    private final String RED_POCKET_CLAIMED_KEY = RedEnvelopeKeys.CLAIMED_KEY;
+    //延遲產生金額的紅包，兩個鍵帶有相同的 hash tag，確保在 Redis Cluster 上位於同一個 slot
+    private final String LAZY_RED_POCKET_KEY = "redEnvelope:{lazy}";
+    private final String LAZY_RED_POCKET_CLAIMED_KEY = "redEnvelope:{lazy}:claimed";
+    //只保護紅包清單，和 redEnvelope:{list} 位於同一個 slot
+    private final String KEY = LockKeys.forKey(RED_POCKET_KEY);
 
     @Autowired
     private RedissonClient redissonClient;
 
+    @Autowired
+    private LockMetrics lockMetrics;
+
+    /**
+     * 延遲產生金額的紅包領取腳本，金額以分為單位，規則和 generateRandomAmount 相同：
+     * 最少 1 元（100 分），最多為剩餘金額 / 剩餘個數，最後一個紅包拿走剩餘金額。
+     * ARGV[2] 為 Java 端產生的 [0, 1) 隨機數，避免依賴 Redis 腳本內的 math.random。
+     * 先檢查是否領過，紅包領完後已領過的用戶仍會拿到原本的金額。
+     * 回傳值：{1, 分} 領取成功；{0} 沒有紅包；{-1, 分} 已經領過。
+     */
+    @SuppressWarnings("rawtypes")
+    private static final DefaultRedisScript<List> CLAIM_LAZY_RED_ENVELOPE_SCRIPT = new DefaultRedisScript<>(
+        "local claimed = redis.call('hget', KEYS[2], ARGV[1]) " +
+            "if claimed then return {-1, tonumber(claimed)} end " +
+            "local count = tonumber(redis.call('hget', KEYS[1], 'remainingCount')) " +
+            "if not count or count <= 0 then return {0} end " +
+            "local cents = tonumber(redis.call('hget', KEYS[1], 'remainingCents')) " +
+            "local amount = cents " +
+            "if count > 1 then " +
+            "  local maxCents = math.floor(cents / count) " +
+            "  amount = 100 + math.floor(tonumber(ARGV[2]) * (maxCents - 100)) " +
+            "end " +
+            "redis.call('hset', KEYS[1], 'remainingCents', cents - amount) " +
+            "redis.call('hset', KEYS[1], 'remainingCount', count - 1) " +
+            "redis.call('hset', KEYS[2], ARGV[1], amount) " +
+            "return {1, amount}", List.class);
+
     @GetMapping("/installRedEnvelopes")
     public void installRedEnvelopes() throws Exception {
 
@@ -42,7 +95,10 @@ public class RedEnvelopesController {
         }
 
         // 將紅包清單儲存到 Redis 的 List 結構中
-        redisTemplate.opsForList().rightPushAll(RED_POCKET_KEY, redEnvelopesList.toArray(new String[0]));
+        //金額以純字串儲存，讓 Lua 腳本可以直接讀寫
+        stringRedisTemplate.opsForList().rightPushAll(RED_POCKET_KEY, redEnvelopesList.toArray(new String[0]));
+        //新的一輪紅包，清除上一輪的領取紀錄
+        stringRedisTemplate.delete(RED_POCKET_CLAIMED_KEY);
     }
 
     @GetMapping("/grabRedEnvelope")
@@ -53,17 +109,19 @@ public class RedEnvelopesController {
         log.info("用户{}已進入", threadId);
         redissonClient.getFairLock(KEY);
         RLock lock = redissonClient.getLock(KEY);
+        LockMetrics.Tracker tracker = lockMetrics.begin(KEY);
         try {
             lock.lock();
-            Long listSize = redisTemplate.opsForList().size(RED_POCKET_KEY);
+            tracker.acquired(true);
+            Long listSize = stringRedisTemplate.opsForList().size(RED_POCKET_KEY);
 
             // 進行業務邏輯處理
             if (listSize != null){
                 if(listSize.compareTo(0L) > 0){
-                    String stringValue = (String)redisTemplate.opsForList().index(RED_POCKET_KEY, -1);
+                    String stringValue = stringRedisTemplate.opsForList().index(RED_POCKET_KEY, -1);
                     if(stringValue != null){
                         BigDecimal lastElement = new BigDecimal(stringValue);
-                        redisTemplate.opsForList().trim(RED_POCKET_KEY, 0, -2);
+                        stringRedisTemplate.opsForList().trim(RED_POCKET_KEY, 0, -2);
                         listSize--;
                         log.info("用戶{}取得紅包{}元，剩餘紅包數{}",threadId,lastElement,listSize);
                     }else {
@@ -89,11 +147,121 @@ public class RedEnvelopesController {
                 lock.unlock();
                 log.info("用户{}成功釋放鎖{}", threadId, endTime);
             }
+            tracker.released();
         }
     }
 
+    /**
+     * @method 非同步搶紅包。
+     * @description 和 grabRedEnvelope 相同的鎖，但改用 Redisson 的 lockAsync 與 RDeque 非同步 API，
+     * 鎖的持有者是邏輯任務 ID 而不是執行緒，等鎖期間不佔用 servlet 執行緒；取出最後一個紅包以 pollLast 一次完成。
+     */
+    @GetMapping("/grabRedEnvelopeAsync")
+    public CompletableFuture<Result<BigDecimal>> grabRedEnvelopeAsync() {
+        long taskId = LockOwnerIds.next();
+        RLock lock = redissonClient.getLock(KEY);
+        //金額以純字串儲存，和 stringRedisTemplate 一致
+        RDeque<String> redEnvelopes = redissonClient.getDeque(RED_POCKET_KEY, StringCodec.INSTANCE);
 
+        return AsyncLocks.withLock(lock, taskId, lockMetrics.begin(KEY), () -> redEnvelopes.pollLastAsync().toCompletableFuture().thenApply(stringValue -> {
+            Result<BigDecimal> result = new Result<>();
+            if (stringValue == null) {
+                log.info("任務{}==無法==取得紅包，因為沒有紅包", taskId);
+                result.setResult(false);
+                result.setMsg("沒有紅包");
+            } else {
+                BigDecimal amount = new BigDecimal(stringValue);
+                log.info("任務{}取得紅包{}元", taskId, amount);
+                result.setResult(true);
+                result.setData(amount);
+                result.setMsg("取得紅包");
+            }
+            return result;
+        }));
+    }
+
+    /**
+     * @method 無鎖領取紅包。
+     * @description grabRedEnvelope 在持有全域鎖的期間執行 LLEN、LINDEX -1、LTRIM 0 -2，加上取鎖、解鎖約六次往返，實際上只是一次 pop。
+     * 此模式用一段 Lua 腳本原子地彈出一個紅包並記錄領取人，一次往返完成，不需要 Redisson 鎖；同一用戶重複領取時回傳原本領到的金額。
+     * userId 是領取紀錄的鍵，必須由呼叫端提供；不能以執行緒 ID 代替，Tomcat 會重複使用執行緒，不同用戶會被當成已經領過。
+     */
+    @GetMapping("/claimRedEnvelope")
+    public Result<BigDecimal> claimRedEnvelope(@RequestParam String userId) {
+        Result<BigDecimal> result = new Result<>();
 
+        List<?> reply = stringRedisTemplate.execute(RedisScripts.CLAIM_RED_ENVELOPE_SCRIPT, List.of(RED_POCKET_KEY, RED_POCKET_CLAIMED_KEY), userId);
+        long status = reply == null || reply.isEmpty() ? 0L : ((Number) reply.get(0)).longValue();
+
+        if (status == 1L) {
+            BigDecimal amount = new BigDecimal(reply.get(1).toString());
+            log.info("用戶{}取得紅包{}元", userId, amount);
+            result.setResult(true);
+            result.setData(amount);
+            result.setMsg("取得紅包");
+        } else if (status == -1L) {
+            log.info("用戶{}==無法==取得紅包，已經領過", userId);
+            result.setResult(false);
+            result.setData(new BigDecimal(reply.get(1).toString()));
+            result.setMsg("已經領過紅包");
+        } else {
+            log.info("用戶{}==無法==取得紅包，因為沒有紅包", userId);
+            result.setResult(false);
+            result.setMsg("沒有紅包");
+        }
+        return result;
+    }
+
+    /**
+     * @method 安裝延遲產生金額的紅包。
+     * @description installRedEnvelopes 會在 Java 端先算出每一個紅包的金額並全部推入 Redis，紅包個數很大時耗費記憶體與 I/O。
+     * 此模式只儲存剩餘總金額（分）與剩餘個數，安裝為 O(1)，每個紅包的金額在領取時才由 Redis 原子地計算。
+     */
+    @GetMapping("/installLazyRedEnvelope")
+    public void installLazyRedEnvelope(@RequestParam(defaultValue = "10") int size,
+                                       @RequestParam(defaultValue = "10000") BigDecimal totalAmount) {
+        long totalCents = totalAmount.movePointRight(2).setScale(0, RoundingMode.DOWN).longValueExact();
+        // 每個紅包最少 1 元
+        if (size <= 0 || totalCents < size * 100L) {
+            throw new IllegalArgumentException("紅包總金額不足以讓每個紅包至少 1 元");
+        }
+
+        stringRedisTemplate.opsForHash().putAll(LAZY_RED_POCKET_KEY,
+            Map.of("remainingCents", String.valueOf(totalCents), "remainingCount", String.valueOf(size)));
+        stringRedisTemplate.delete(LAZY_RED_POCKET_CLAIMED_KEY);
+        log.info("安裝紅包{}個，總金額{}元", size, totalAmount);
+    }
+
+    /**
+     * userId 必須由呼叫端提供，理由同 claimRedEnvelope。
+     */
+    @GetMapping("/claimLazyRedEnvelope")
+    public Result<BigDecimal> claimLazyRedEnvelope(@RequestParam String userId) {
+        Result<BigDecimal> result = new Result<>();
+
+        String random = String.valueOf(ThreadLocalRandom.current().nextDouble());
+        List<?> reply = stringRedisTemplate.execute(CLAIM_LAZY_RED_ENVELOPE_SCRIPT,
+            List.of(LAZY_RED_POCKET_KEY, LAZY_RED_POCKET_CLAIMED_KEY), userId, random);
+        long status = reply == null || reply.isEmpty() ? 0L : ((Number) reply.get(0)).longValue();
+
+        if (status == 1L) {
+            BigDecimal amount = BigDecimal.valueOf(((Number) reply.get(1)).longValue(), 2);
+            log.info("用戶{}取得紅包{}元", userId, amount);
+            result.setResult(true);
+            result.setData(amount);
+            result.setMsg("取得紅包");
+        } else if (status == -1L) {
+            log.info("用戶{}==無法==取得紅包，已經領過", userId);
+            result.setResult(false);
+            result.setData(BigDecimal.valueOf(((Number) reply.get(1)).longValue(), 2));
+            result.setMsg("已經領過紅包");
+        } else {
+            log.info("用戶{}==無法==取得紅包，因為沒有紅包", userId);
+            result.setResult(false);
+            result.setMsg("沒有紅包");
+        }
+        return result;
+    }
 
     private static List<String> generateRedEnvelopes(int size, BigDecimal totalAmount) {
         Random random = new Random();
@@ -0,0 +1,106 @@
+package com.example.rediscontributedlock.controller;
+
+import com.example.rediscontributedlock.model.Result;
+import com.example.rediscontributedlock.service.InventoryService;
+import com.example.rediscontributedlock.service.ReservationService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.UUID;
+
+/**
+ * 先保留、後確認的搶票與選課。票券不帶 eventId、sku 時保留 tickets:quantity，否則保留 InventoryService 的 SKU 庫存。
+ * 保留在 reservation.hold-ttl-millis 內未確認就由 ReservationService 的回收器歸還。
+ */
+@Slf4j
+@RestController
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+@RequestMapping("/reservation/api")
+public class ReservationController {
+
+    private final String TICKET_KEY = "tickets:quantity";
+
+    @Autowired
+    private ReservationService reservationService;
+
+    @Autowired
+    private InventoryService inventoryService;
+
+    /**
+     * 保留一張票，成功時回傳 holdId，之後以 holdId 確認或取消。
+     */
+    @GetMapping("/holdTicket")
+    public Result<String> holdTicket(@RequestParam(required = false) String eventId, @RequestParam(required = false) String sku,
+                                     @RequestParam(required = false) String userId) {
+        String holdId = UUID.randomUUID().toString();
+        long remaining = reservationService.holdStock(stockKey(eventId, sku), holdId, userId != null ? userId : "");
+        Result<String> result = new Result<>();
+        if (remaining >= 0) {
+            log.info("用戶{}保留票{}，剩餘{}", userId, holdId, remaining);
+            result.setResult(true);
+            result.setData(holdId);
+            result.setMsg("保留成功");
+        } else {
+            result.setResult(false);
+            result.setMsg(remaining == -1L ? "已售完" : "redis無庫存的緩存");
+        }
+        return result;
+    }
+
+    @GetMapping("/confirmTicket")
+    public Result<String> confirmTicket(@RequestParam String holdId, @RequestParam(required = false) String eventId,
+                                        @RequestParam(required = false) String sku) {
+        return confirmResult(holdId, reservationService.confirmStock(stockKey(eventId, sku), holdId));
+    }
+
+    @GetMapping("/cancelTicket")
+    public Result<String> cancelTicket(@RequestParam String holdId, @RequestParam(required = false) String eventId,
+                                       @RequestParam(required = false) String sku) {
+        return cancelResult(holdId, reservationService.cancelStock(stockKey(eventId, sku), holdId));
+    }
+
+    @GetMapping("/holdSeat")
+    public Result<String> holdSeat(@RequestParam Long studentId, @RequestParam Long courseId, @RequestParam String seat) {
+        long status = reservationService.holdSeat(courseId, studentId, seat);
+        Result<String> result = new Result<>();
+        result.setResult(status == 1L);
+        result.setData(seat);
+        result.setMsg(status == 1L ? "保留成功" : status == -1L ? "已選過或已有保留" : "座位已被佔用");
+        return result;
+    }
+
+    @GetMapping("/confirmSeat")
+    public Result<String> confirmSeat(@RequestParam Long studentId, @RequestParam Long courseId) {
+        return confirmResult(studentId.toString(), reservationService.confirmSeat(courseId, studentId));
+    }
+
+    @GetMapping("/cancelSeat")
+    public Result<String> cancelSeat(@RequestParam Long studentId, @RequestParam Long courseId) {
+        return cancelResult(studentId.toString(), reservationService.cancelSeat(courseId, studentId));
+    }
+
+    private String stockKey(String eventId, String sku) {
+        return eventId != null && sku != null ? inventoryService.stockKey(eventId, sku) : TICKET_KEY;
+    }
+
+    private Result<String> confirmResult(String holdId, long status) {
+        Result<String> result = new Result<>();
+        result.setResult(status == 1L);
+        result.setData(holdId);
+        result.setMsg(status == 1L ? "確認成功" : status == -1L ? "保留已逾時" : status == -2L ? "已選過這門課，保留已釋放" : "查無保留");
+        return result;
+    }
+
+    private Result<String> cancelResult(String holdId, boolean cancelled) {
+        Result<String> result = new Result<>();
+        result.setResult(cancelled);
+        result.setData(holdId);
+        result.setMsg(cancelled ? "已取消保留" : "查無保留");
+        return result;
+    }
+}
@@ -0,0 +1,80 @@
+package com.example.rediscontributedlock.controller;
+
+import com.example.rediscontributedlock.model.Result;
+import com.example.rediscontributedlock.service.SeatMapService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.List;
+
+/**
+ * bitmap 座位表的選位端點：建立座位表、指定座位或由系統分配第一個空位、查詢空位與佔用者。
+ * 座位表和 CourseService 的選課流程（course:data:&lt;courseId&gt;）各自獨立，同一門課只使用其中一種。
+ */
+@Slf4j
+@RestController
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+@RequestMapping("/seatMap/api")
+public class SeatMapController {
+
+    @Autowired
+    private SeatMapService seatMapService;
+
+    @GetMapping("/initSeatMap")
+    public Result<Integer> initSeatMap(@RequestParam Long courseId, @RequestParam(defaultValue = "100") int seats) {
+        seatMapService.initSeatMap(courseId, seats);
+        Result<Integer> result = new Result<>();
+        result.setResult(true);
+        result.setData(seats);
+        result.setMsg("建立座位表");
+        return result;
+    }
+
+    @GetMapping("/claimSeat")
+    public Result<Integer> claimSeat(@RequestParam Long courseId, @RequestParam int seatNo, @RequestParam Long studentId) {
+        boolean claimed = seatMapService.claimSeat(courseId, seatNo, studentId);
+        log.info("學生{}選座位{}：{}", studentId, seatNo, claimed);
+        Result<Integer> result = new Result<>();
+        result.setResult(claimed);
+        result.setData(seatNo);
+        result.setMsg(claimed ? "選位成功" : "座位已被佔用、不存在，或已佔有其他座位");
+        return result;
+    }
+
+    /**
+     * 不指定座位，分配第一個空位；已經有座位的學生回傳原本的座位。
+     */
+    @GetMapping("/claimAnySeat")
+    public Result<Integer> claimAnySeat(@RequestParam Long courseId, @RequestParam Long studentId) {
+        int seatNo = seatMapService.claimAnySeat(courseId, studentId);
+        Result<Integer> result = new Result<>();
+        result.setResult(seatNo > 0);
+        result.setData(seatNo > 0 ? seatNo : null);
+        result.setMsg(seatNo > 0 ? "選位成功" : "已無空位或座位表不存在");
+        return result;
+    }
+
+    @GetMapping("/availableSeats")
+    public Result<List<Integer>> getAvailableSeats(@RequestParam Long courseId) {
+        Result<List<Integer>> result = new Result<>();
+        result.setResult(true);
+        result.setData(seatMapService.getAvailableSeats(courseId));
+        result.setMsg("查詢空位");
+        return result;
+    }
+
+    @GetMapping("/occupant")
+    public Result<String> getOccupant(@RequestParam Long courseId, @RequestParam int seatNo) {
+        String occupant = seatMapService.getOccupant(courseId, seatNo);
+        Result<String> result = new Result<>();
+        result.setResult(occupant != null);
+        result.setData(occupant);
+        result.setMsg(occupant != null ? "座位已被佔用" : "座位尚未被佔用");
+        return result;
+    }
+}
@@ -4,6 +4,7 @@ import jakarta.persistence.Entity;
 import jakarta.persistence.GeneratedValue;
 import jakarta.persistence.GenerationType;
 import jakarta.persistence.Id;
+import jakarta.persistence.Version;
 import lombok.Data;
 
 @Entity
@@ -14,5 +15,8 @@ public @Data class Course {
     private String courseName;
     private Integer maxSeats;
     private Integer availableSeats;
+    //樂觀鎖版本號，使用 primitive 讓既有資料列以 0 起算
+    @Version
+    private long version;
 
 }
@@ -4,11 +4,17 @@ import jakarta.persistence.Entity;
 import jakarta.persistence.GeneratedValue;
 import jakarta.persistence.GenerationType;
 import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.Table;
 import lombok.Data;
 
 import java.time.LocalDateTime;
 
 @Entity
+@Table(indexes = {
+    @Index(name = "idx_enrollment_course_student", columnList = "courseId, studentId", unique = true),
+    @Index(name = "idx_enrollment_course_seat", columnList = "courseId, seat", unique = true)
+})
 public @Data class EnrollmentRecord {
 
     @Id
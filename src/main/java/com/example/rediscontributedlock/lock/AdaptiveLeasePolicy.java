@@ -0,0 +1,154 @@
+package com.example.rediscontributedlock.lock;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 依每把鎖實際的持有時間決定租期：記錄最近 window 次的持有時間，租期 = 第 percentile 百分位 + margin，
+ * 限制在 [minLeaseMillis, maxLeaseMillis] 之間；樣本不足 minSamples 時用 lock.lease-millis。
+ * <p>
+ * 持有者當機時，其他節點最多只需等大約 p99 持有時間，而不是看門狗的 30 秒。
+ * 持有者只有在租期剩下 renewAheadMillis 時還沒解鎖才續期，大部分持有在第一次續期前就結束，不產生續期流量。
+ * 續期會同步呼叫 Redis，由 renewal-threads 條執行緒執行，一次 Redis 變慢時其他鎖的續期不必排在它後面而錯過到期時間。
+ * 持有時間超過租期（鎖已被別人拿走）的樣本同樣會記錄，之後的租期會跟著變長。
+ * 統計以鎖的類別（LockKeys.family）為單位：同一類的鎖執行相同的臨界區，持有時間的分布相同，
+ * 每門課各自累積樣本反而很少達到 minSamples，視窗與 gauge 的數量也不會隨課程增加。
+ */
+@Component
+public class AdaptiveLeasePolicy {
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${lock.lease-millis:10000}")
+    private long defaultLeaseMillis;
+
+    @Value("${lock.adaptive.percentile:0.99}")
+    private double percentile;
+
+    @Value("${lock.adaptive.margin-millis:200}")
+    private long marginMillis;
+
+    @Value("${lock.adaptive.min-lease-millis:500}")
+    private long minLeaseMillis;
+
+    @Value("${lock.adaptive.max-lease-millis:30000}")
+    private long maxLeaseMillis;
+
+    @Value("${lock.adaptive.renew-ahead-millis:200}")
+    private long renewAheadMillis;
+
+    @Value("${lock.adaptive.window:256}")
+    private int window;
+
+    @Value("${lock.adaptive.min-samples:32}")
+    private int minSamples;
+
+    @Value("${lock.adaptive.renewal-threads:4}")
+    private int renewalThreads;
+
+    //以鎖的類別為鍵，數量有限
+    private final ConcurrentMap<String, HoldWindow> windows = new ConcurrentHashMap<>();
+
+    private ScheduledThreadPoolExecutor renewalScheduler;
+
+    @PostConstruct
+    public void init() {
+        if (!(percentile > 0 && percentile <= 1)) {
+            throw new IllegalStateException("lock.adaptive.percentile 必須介於 (0, 1]，例如 0.99，目前為 " + percentile);
+        }
+        if (window <= 0) {
+            throw new IllegalStateException("lock.adaptive.window 必須大於 0，目前為 " + window);
+        }
+        if (renewalThreads <= 0) {
+            throw new IllegalStateException("lock.adaptive.renewal-threads 必須大於 0，目前為 " + renewalThreads);
+        }
+        AtomicInteger threadIndex = new AtomicInteger();
+        renewalScheduler = new ScheduledThreadPoolExecutor(renewalThreads, r -> {
+            Thread thread = new Thread(r, "lock-lease-renewal-" + threadIndex.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        //解鎖時取消的續期直接移出佇列
+        renewalScheduler.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * 這把鎖所屬類別目前應使用的租期（毫秒）。
+     */
+    public long leaseMillis(String key) {
+        return window(key).leaseMillis;
+    }
+
+    public void recordHold(String key, long holdNanos) {
+        window(key).record(TimeUnit.NANOSECONDS.toMillis(holdNanos));
+    }
+
+    /**
+     * 在租期剩下 renewAheadMillis 時執行 renewal；租期太短時至少等到租期過半。
+     */
+    ScheduledFuture<?> scheduleRenewal(String key, long leaseMillis, Runnable renewal) {
+        long delay = Math.max(leaseMillis - renewAheadMillis, leaseMillis / 2);
+        return renewalScheduler.schedule(() -> {
+            Counter.builder("lock.lease.renewals").tag("family", LockKeys.family(key)).register(meterRegistry).increment();
+            renewal.run();
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        renewalScheduler.shutdownNow();
+    }
+
+    private HoldWindow window(String key) {
+        return windows.computeIfAbsent(LockKeys.family(key), family -> {
+            HoldWindow holdWindow = new HoldWindow();
+            Gauge.builder("lock.lease.adaptive", holdWindow, w -> w.leaseMillis)
+                .tag("family", family)
+                .baseUnit("milliseconds")
+                .register(meterRegistry);
+            return holdWindow;
+        });
+    }
+
+    /**
+     * 最近 window 次持有時間的環狀緩衝區，每次記錄後重新計算租期。
+     */
+    private final class HoldWindow {
+
+        private final long[] samples = new long[window];
+
+        private int count;
+
+        private int next;
+
+        private volatile long leaseMillis = defaultLeaseMillis;
+
+        private synchronized void record(long holdMillis) {
+            samples[next] = holdMillis;
+            next = (next + 1) % samples.length;
+            count = Math.min(count + 1, samples.length);
+            if (count >= minSamples) {
+                long[] sorted = Arrays.copyOf(samples, count);
+                Arrays.sort(sorted);
+                int index = Math.max(0, Math.min(count - 1, (int) Math.ceil(percentile * count) - 1));
+                long observed = sorted[index];
+                leaseMillis = Math.max(minLeaseMillis, Math.min(maxLeaseMillis, observed + marginMillis));
+            }
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package com.example.rediscontributedlock.lock;
+
+import org.redisson.api.RLock;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.function.Supplier;
+
+/**
+ * 以 Redisson 非同步鎖包住一段非同步業務邏輯：取鎖、執行、不論成功失敗都解鎖，全程不阻塞執行緒。
+ * 鎖的持有者是 taskId（見 LockOwnerIds），所以取鎖、執行與解鎖可以發生在不同執行緒上。
+ */
+public final class AsyncLocks {
+
+    private AsyncLocks() {
+    }
+
+    public static <T> CompletableFuture<T> withLock(RLock lock, long taskId, LockMetrics.Tracker tracker,
+                                                    Supplier<? extends CompletionStage<T>> body) {
+        return lock.lockAsync(taskId).toCompletableFuture()
+            .whenComplete((v, ex) -> tracker.acquired(ex == null))
+            .thenCompose(v -> runAndUnlock(lock, taskId, tracker, body));
+    }
+
+    /**
+     * 已經以 taskId 取得鎖時呼叫：執行 body，完成後解鎖並記錄持有時間，保留 body 的結果或例外。
+     */
+    public static <T> CompletableFuture<T> runAndUnlock(RLock lock, long taskId, LockMetrics.Tracker tracker,
+                                                        Supplier<? extends CompletionStage<T>> body) {
+        CompletableFuture<T> result;
+        try {
+            result = body.get().toCompletableFuture();
+        } catch (RuntimeException e) {
+            result = CompletableFuture.failedFuture(e);
+        }
+        return result
+            .handle((value, ex) -> lock.unlockAsync(taskId).toCompletableFuture().handle((unlocked, unlockEx) -> {
+                tracker.released();
+                if (ex != null) {
+                    throw ex instanceof CompletionException ce ? ce : new CompletionException(ex);
+                }
+                return value;
+            }))
+            .thenCompose(future -> future);
+    }
+}
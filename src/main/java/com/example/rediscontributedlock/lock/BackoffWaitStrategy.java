@@ -0,0 +1,27 @@
+package com.example.rediscontributedlock.lock;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 指數退避加上 full jitter：第 n 次失敗後在 [0, min(max, base * 2^n)) 之間隨機睡眠，
+ * 避免所有等待者在同一時刻一起重試。
+ */
+public class BackoffWaitStrategy implements WaitStrategy {
+
+    private final long baseNanos;
+
+    private final long maxNanos;
+
+    public BackoffWaitStrategy(long baseMillis, long maxMillis) {
+        this.baseNanos = TimeUnit.MILLISECONDS.toNanos(baseMillis);
+        this.maxNanos = TimeUnit.MILLISECONDS.toNanos(maxMillis);
+    }
+
+    @Override
+    public void await(String key, int attempt, long maxWaitNanos) throws InterruptedException {
+        long ceiling = Math.min(maxNanos, baseNanos << Math.min(attempt, 20));
+        long sleepNanos = Math.min(maxWaitNanos, ThreadLocalRandom.current().nextLong(Math.max(1, ceiling)));
+        TimeUnit.NANOSECONDS.sleep(sleepNanos);
+    }
+}
@@ -0,0 +1,26 @@
+package com.example.rediscontributedlock.lock;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 分散式鎖。一個實例代表一次持有，只供取得它的執行緒使用，不可重入。
+ */
+public interface DistributedLock {
+
+    /**
+     * 阻塞直到取得鎖。
+     */
+    void lock() throws InterruptedException;
+
+    /**
+     * 在 timeout 內嘗試取得鎖，逾時回傳 false。
+     */
+    boolean tryLock(long timeout, TimeUnit unit) throws InterruptedException;
+
+    /**
+     * 只有鎖仍是自己持有時才刪除，回傳是否確實釋放。
+     */
+    boolean unlock();
+
+    String getKey();
+}
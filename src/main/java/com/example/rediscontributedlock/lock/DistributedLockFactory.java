@@ -0,0 +1,66 @@
+package com.example.rediscontributedlock.lock;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+
+/**
+ * 建立 DistributedLock，預設使用 lock.wait-strategy 設定的等待策略（pubsub 或 backoff）。
+ * lock.lease-mode=adaptive 時租期由 AdaptiveLeasePolicy 依持有時間決定，fixed 時固定為 lock.lease-millis；
+ * 未設定時為 fixed，application.properties 中設定為 adaptive。
+ */
+@Component
+public class DistributedLockFactory {
+
+    @Autowired
+    private StringRedisTemplate redisTemplate;
+
+    @Autowired
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    @Autowired
+    private AdaptiveLeasePolicy adaptiveLeasePolicy;
+
+    @Value("${lock.lease-millis:10000}")
+    private long leaseMillis;
+
+    @Value("${lock.lease-mode:fixed}")
+    private String leaseMode;
+
+    @Value("${lock.wait-strategy:pubsub}")
+    private String waitStrategyName;
+
+    @Value("${lock.pubsub.max-poll-millis:100}")
+    private long pubSubMaxPollMillis;
+
+    private PubSubWaitStrategy pubSubWaitStrategy;
+
+    private BackoffWaitStrategy backoffWaitStrategy;
+
+    @PostConstruct
+    public void init() {
+        pubSubWaitStrategy = new PubSubWaitStrategy(redisMessageListenerContainer, pubSubMaxPollMillis);
+        backoffWaitStrategy = new BackoffWaitStrategy(5, 500);
+    }
+
+    public DistributedLock getLock(String key) {
+        return getLock(key, "backoff".equals(waitStrategyName) ? backoffWaitStrategy : pubSubWaitStrategy);
+    }
+
+    public DistributedLock getLock(String key, WaitStrategy waitStrategy) {
+        return new RedisDistributedLock(redisTemplate, key, leaseMillis, waitStrategy,
+            "adaptive".equals(leaseMode) ? adaptiveLeasePolicy : null);
+    }
+
+    public WaitStrategy pubSubWaitStrategy() {
+        return pubSubWaitStrategy;
+    }
+
+    public WaitStrategy backoffWaitStrategy() {
+        return backoffWaitStrategy;
+    }
+}
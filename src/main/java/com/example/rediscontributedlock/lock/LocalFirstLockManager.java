@@ -0,0 +1,93 @@
+package com.example.rediscontributedlock.lock;
+
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RLock;
+import org.redisson.api.RedissonClient;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 兩層鎖：同一個 JVM 內的執行緒先排在本地的公平鎖上，只有本地的勝出者才去搶 Redisson 分散式鎖，
+ * 每個節點對同一個 key 最多只有一個執行緒在和 Redis 往返、訂閱解鎖通知。
+ * <p>
+ * 開啟 handoff 時，持有者釋放時若本地還有人在等，分散式鎖不還給 Redis，直接交給下一個本地等待者，
+ * 最多連續交接 maxHandoffs 次，避免其他節點餓死。
+ * 因為分散式鎖會跨執行緒交接，Redisson 鎖的持有者不是執行緒 ID，而是每個 key 各自的虛擬 ID。
+ */
+@Slf4j
+@Component
+public class LocalFirstLockManager {
+
+    @Autowired
+    private RedissonClient redissonClient;
+
+    @Value("${lock.local.handoff:true}")
+    private boolean handoff;
+
+    @Value("${lock.local.max-handoffs:16}")
+    private int maxHandoffs;
+
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+
+    public void lock(String key) {
+        Entry entry = entries.computeIfAbsent(key, k -> new Entry(redissonClient.getLock(k)));
+        entry.local.lock();
+        if (entry.local.getHoldCount() > 1 || entry.distributedHeld) {
+            // 重入，或上一個本地持有者直接交接了分散式鎖
+            return;
+        }
+        try {
+            // leaseTime = -1 啟用看門狗續期
+            entry.distributed.lockAsync(-1, TimeUnit.MILLISECONDS, entry.ownerId).toCompletableFuture().join();
+        } catch (RuntimeException e) {
+            entry.local.unlock();
+            throw e;
+        }
+        entry.distributedHeld = true;
+        entry.handoffs = 0;
+    }
+
+    public void unlock(String key) {
+        Entry entry = entries.get(key);
+        if (entry == null || !entry.local.isHeldByCurrentThread()) {
+            throw new IllegalMonitorStateException("鎖" + key + "不是目前執行緒持有");
+        }
+        if (entry.local.getHoldCount() == 1) {
+            if (handoff && entry.handoffs < maxHandoffs && entry.local.hasQueuedThreads()) {
+                entry.handoffs++;
+            } else {
+                releaseDistributed(entry);
+            }
+        }
+        entry.local.unlock();
+    }
+
+    private void releaseDistributed(Entry entry) {
+        entry.distributedHeld = false;
+        try {
+            entry.distributed.unlockAsync(entry.ownerId).toCompletableFuture().join();
+        } catch (RuntimeException e) {
+            // 鎖已過期或已被釋放
+            log.error("釋放分散式鎖{}失敗: {}", entry.distributed.getName(), e.getMessage());
+        }
+    }
+
+    private static class Entry {
+        private final ReentrantLock local = new ReentrantLock(true);
+        private final RLock distributed;
+        private final long ownerId = LockOwnerIds.next();
+        //只在持有 local 時讀寫
+        private boolean distributedHeld;
+        private int handoffs;
+
+        private Entry(RLock distributed) {
+            this.distributed = distributed;
+        }
+    }
+}
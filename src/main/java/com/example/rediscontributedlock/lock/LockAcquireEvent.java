@@ -0,0 +1,30 @@
+package com.example.rediscontributedlock.lock;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * JFR 事件：一次取鎖，事件的 duration 即等待時間。
+ */
+@Name("com.example.rediscontributedlock.LockAcquire")
+@Label("Lock Acquire")
+@Category({"Redis", "Lock"})
+@Description("取得分散式鎖的等待")
+@StackTrace(false)
+class LockAcquireEvent extends Event {
+
+    @Label("Key")
+    String key;
+
+    @Label("Wait")
+    @Timespan(Timespan.NANOSECONDS)
+    long waitNanos;
+
+    @Label("Success")
+    boolean success;
+}
@@ -0,0 +1,27 @@
+package com.example.rediscontributedlock.lock;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * JFR 事件：一次持有鎖，從取得到釋放，事件的 duration 即持有時間。
+ */
+@Name("com.example.rediscontributedlock.LockHeld")
+@Label("Lock Held")
+@Category({"Redis", "Lock"})
+@Description("持有分散式鎖的期間")
+@StackTrace(false)
+class LockHeldEvent extends Event {
+
+    @Label("Key")
+    String key;
+
+    @Label("Hold")
+    @Timespan(Timespan.NANOSECONDS)
+    long holdNanos;
+}
@@ -0,0 +1,68 @@
+package com.example.rediscontributedlock.lock;
+
+/**
+ * 由受保護的資源推導鎖名，取代所有端點共用的 "ContributeLock"，不同的庫存、紅包、課程各自一把鎖，互不阻塞。
+ * 鎖名格式為 lock:{hashTag}[:限定詞...]，hashTag 依 Redis Cluster 的規則取自資料鍵：
+ * 資料鍵本身帶有 {tag} 時沿用該 tag，否則以整個資料鍵作為 tag，鎖因此與資料位於同一個 slot。
+ */
+public final class LockKeys {
+
+    private static final String PREFIX = "lock:";
+
+    private LockKeys() {
+    }
+
+    /**
+     * 保護 dataKey 的鎖名，qualifiers 用來在同一個資源下再細分，例如座位分段或學生。
+     */
+    public static String forKey(String dataKey, Object... qualifiers) {
+        StringBuilder name = new StringBuilder(PREFIX).append('{').append(hashTag(dataKey)).append('}');
+        for (Object qualifier : qualifiers) {
+            name.append(':').append(qualifier);
+        }
+        return name.toString();
+    }
+
+    /**
+     * 課程鎖，與 course:data:&lt;courseId&gt; 同一個 slot。
+     */
+    public static String course(Long courseId, Object... qualifiers) {
+        return forKey("course:data:" + courseId, qualifiers);
+    }
+
+    /**
+     * Controller 中示範用、不保護任何資料的鎖。
+     */
+    public static String demo() {
+        return forKey("demo");
+    }
+
+    /**
+     * 鎖的類別，作為指標標籤與租期統計的分組，數量不隨課程、學生等 ID 增加：
+     * 去掉 lock: 前綴與大括號，純數字的段落以 * 取代，例如 lock:{course:data:42}:seat:3 為 course:data:*:seat:*。
+     */
+    public static String family(String lockKey) {
+        String name = lockKey.startsWith(PREFIX) ? lockKey.substring(PREFIX.length()) : lockKey;
+        String[] segments = name.replace("{", "").replace("}", "").split(":", -1);
+        for (int i = 0; i < segments.length; i++) {
+            if (!segments[i].isEmpty() && segments[i].chars().allMatch(Character::isDigit)) {
+                segments[i] = "*";
+            }
+        }
+        return String.join(":", segments);
+    }
+
+    /**
+     * Redis Cluster 計算 slot 時實際使用的部分：第一個 '{' 與其後第一個 '}' 之間的非空字串，沒有時為整個鍵。
+     */
+    public static String hashTag(String key) {
+        int start = key.indexOf('{');
+        if (start >= 0) {
+            int end = key.indexOf('}', start + 1);
+            if (end > start + 1) {
+                return key.substring(start + 1, end);
+            }
+        }
+        return key;
+    }
+}
@@ -0,0 +1,118 @@
+package com.example.rediscontributedlock.lock;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 鎖的指標，以鎖的類別（LockKeys.family，例如 course:data:*:seat:*）作為 family 標籤，透過 Actuator 的 /actuator/prometheus 輸出，
+ * 時間序列的數量不隨課程、學生增加：
+ * lock.acquire：取鎖等待時間（result=success/failure），
+ * lock.hold：持有時間，
+ * lock.try.failures：tryLock 失敗次數，
+ * lock.waiters：目前正在等這把鎖的請求數。
+ * 同時發出 JFR 事件 LockAcquire（等待時間、是否成功）與 LockHeld（持有時間），事件帶完整的鎖名，可和 GC、Netty 執行緒的停頓放在同一份錄製中對照。
+ * 用法：取鎖前 begin()，取鎖後 acquired(是否成功)，最後在 finally 中 released()；取鎖途中拋出例外時 released() 也會扣回等待數。
+ */
+@Component
+public class LockMetrics {
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    //以鎖的類別為鍵，數量有限
+    private final ConcurrentMap<String, AtomicInteger> waiters = new ConcurrentHashMap<>();
+
+    public Tracker begin(String key) {
+        String family = LockKeys.family(key);
+        waiters.computeIfAbsent(family, f -> meterRegistry.gauge("lock.waiters", Tags.of("family", f), new AtomicInteger()))
+            .incrementAndGet();
+        return new Tracker(key, family);
+    }
+
+    private Timer timer(String name, String family, String result) {
+        Timer.Builder builder = Timer.builder(name).tag("family", family).publishPercentileHistogram();
+        if (result != null) {
+            builder.tag("result", result);
+        }
+        return builder.register(meterRegistry);
+    }
+
+    public final class Tracker {
+
+        private final String key;
+
+        private final String family;
+
+        private final long startNanos = System.nanoTime();
+
+        private volatile boolean finished;
+
+        private volatile boolean acquired;
+
+        private volatile long acquiredNanos;
+
+        private final LockAcquireEvent acquireEvent = new LockAcquireEvent();
+
+        private volatile LockHeldEvent heldEvent;
+
+        private Tracker(String key, String family) {
+            this.key = key;
+            this.family = family;
+            acquireEvent.begin();
+        }
+
+        public void acquired(boolean success) {
+            if (finished) {
+                return;
+            }
+            long now = System.nanoTime();
+            finished = true;
+            waiters.get(family).decrementAndGet();
+            timer("lock.acquire", family, success ? "success" : "failure").record(now - startNanos, TimeUnit.NANOSECONDS);
+            acquireEvent.end();
+            if (acquireEvent.shouldCommit()) {
+                acquireEvent.key = key;
+                acquireEvent.waitNanos = now - startNanos;
+                acquireEvent.success = success;
+                acquireEvent.commit();
+            }
+            if (success) {
+                acquiredNanos = now;
+                acquired = true;
+                LockHeldEvent event = new LockHeldEvent();
+                event.begin();
+                heldEvent = event;
+            } else {
+                Counter.builder("lock.try.failures").tag("family", family).register(meterRegistry).increment();
+            }
+        }
+
+        public void released() {
+            if (!finished) {
+                finished = true;
+                waiters.get(family).decrementAndGet();
+            }
+            if (acquired) {
+                acquired = false;
+                long holdNanos = System.nanoTime() - acquiredNanos;
+                timer("lock.hold", family, null).record(holdNanos, TimeUnit.NANOSECONDS);
+                LockHeldEvent event = heldEvent;
+                event.end();
+                if (event.shouldCommit()) {
+                    event.key = key;
+                    event.holdNanos = holdNanos;
+                    event.commit();
+                }
+            }
+        }
+    }
+}
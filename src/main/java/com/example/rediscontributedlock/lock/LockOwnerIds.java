@@ -0,0 +1,20 @@
+package com.example.rediscontributedlock.lock;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Redisson 鎖的虛擬持有者 ID。
+ * 非同步取鎖或跨執行緒交接時，鎖的持有者是一個邏輯任務而不是執行緒；
+ * 使用負數並在整個 JVM 內遞減，不會和真實的執行緒 ID 或其他任務衝突。
+ */
+public final class LockOwnerIds {
+
+    private static final AtomicLong IDS = new AtomicLong();
+
+    private LockOwnerIds() {
+    }
+
+    public static long next() {
+        return IDS.decrementAndGet();
+    }
+}
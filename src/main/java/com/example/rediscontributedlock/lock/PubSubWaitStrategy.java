@@ -0,0 +1,70 @@
+package com.example.rediscontributedlock.lock;
+
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.listener.PatternTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 釋放通知的等待策略：解鎖腳本會 PUBLISH 到 lock:released:<key>，
+ * 本節點只訂閱一次 pattern，收到後喚醒等待同一個 key 的執行緒，等待者在釋放後數毫秒內就能重試。
+ * 鎖也可能因過期而消失、或通知在開始等待前就已送達，所以每次最多等待 maxPollMillis 後仍會重試一次。
+ * 每個 key 的等待者項目在最後一個等待者離開時移除，不會隨著出現過的 key 無限增加。
+ */
+public class PubSubWaitStrategy implements WaitStrategy, MessageListener {
+
+    static final String CHANNEL_PREFIX = "lock:released:";
+
+    private final long maxPollNanos;
+
+    private final ConcurrentMap<String, Waiters> waitersByKey = new ConcurrentHashMap<>();
+
+    public PubSubWaitStrategy(RedisMessageListenerContainer container, long maxPollMillis) {
+        this.maxPollNanos = TimeUnit.MILLISECONDS.toNanos(maxPollMillis);
+        container.addMessageListener(this, new PatternTopic(CHANNEL_PREFIX + "*"));
+    }
+
+    @Override
+    public void await(String key, int attempt, long maxWaitNanos) throws InterruptedException {
+        Waiters waiters = waitersByKey.compute(key, (k, existing) -> {
+            Waiters registered = existing != null ? existing : new Waiters();
+            registered.count++;
+            return registered;
+        });
+        waiters.lock.lock();
+        try {
+            waiters.released.awaitNanos(Math.min(maxWaitNanos, maxPollNanos));
+        } finally {
+            waiters.lock.unlock();
+            waitersByKey.computeIfPresent(key, (k, existing) -> --existing.count == 0 ? null : existing);
+        }
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String channel = new String(message.getChannel(), StandardCharsets.UTF_8);
+        Waiters waiters = waitersByKey.get(channel.substring(CHANNEL_PREFIX.length()));
+        if (waiters != null) {
+            waiters.lock.lock();
+            try {
+                waiters.released.signalAll();
+            } finally {
+                waiters.lock.unlock();
+            }
+        }
+    }
+
+    private static class Waiters {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition released = lock.newCondition();
+        //只在 waitersByKey 的 compute 中讀寫
+        private int count;
+    }
+}
@@ -0,0 +1,125 @@
+package com.example.rediscontributedlock.lock;
+
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 以 Controller.getLockV5 的作法實作的分散式鎖：
+ * SET key uuid NX EX 取鎖，解鎖時用 Lua 腳本比對 uuid 後才刪除，並發佈釋放通知。
+ * 取鎖失敗時交給 WaitStrategy 等待，而不是 Thread.sleep(1000) 之後遞歸重試。
+ * 傳入 AdaptiveLeasePolicy 時，租期依這把鎖過去的持有時間決定，快到期仍未解鎖才續期，解鎖時回報本次持有時間。
+ */
+public class RedisDistributedLock implements DistributedLock {
+
+    private static final DefaultRedisScript<Long> UNLOCK_SCRIPT = new DefaultRedisScript<>(
+        "if redis.call('get', KEYS[1]) == ARGV[1] then " +
+            "redis.call('del', KEYS[1]) " +
+            "redis.call('publish', ARGV[2], ARGV[1]) " +
+            "return 1 " +
+            "else return 0 end", Long.class);
+
+    private static final DefaultRedisScript<Long> RENEW_SCRIPT = new DefaultRedisScript<>(
+        "if redis.call('get', KEYS[1]) == ARGV[1] then " +
+            "return redis.call('pexpire', KEYS[1], ARGV[2]) " +
+            "else return 0 end", Long.class);
+
+    private final StringRedisTemplate redisTemplate;
+
+    private final String key;
+
+    private final long leaseMillis;
+
+    private final WaitStrategy waitStrategy;
+
+    private final AdaptiveLeasePolicy leasePolicy;
+
+    private final String token = UUID.randomUUID().toString();
+
+    private long acquiredNanos;
+
+    private volatile ScheduledFuture<?> renewal;
+
+    public RedisDistributedLock(StringRedisTemplate redisTemplate, String key, long leaseMillis, WaitStrategy waitStrategy) {
+        this(redisTemplate, key, leaseMillis, waitStrategy, null);
+    }
+
+    public RedisDistributedLock(StringRedisTemplate redisTemplate, String key, long leaseMillis, WaitStrategy waitStrategy,
+                                AdaptiveLeasePolicy leasePolicy) {
+        this.redisTemplate = redisTemplate;
+        this.key = key;
+        this.leaseMillis = leaseMillis;
+        this.waitStrategy = waitStrategy;
+        this.leasePolicy = leasePolicy;
+    }
+
+    @Override
+    public void lock() throws InterruptedException {
+        int attempt = 0;
+        while (!tryAcquire()) {
+            waitStrategy.await(key, ++attempt, Long.MAX_VALUE);
+        }
+    }
+
+    @Override
+    public boolean tryLock(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        int attempt = 0;
+        while (!tryAcquire()) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return false;
+            }
+            waitStrategy.await(key, ++attempt, remaining);
+        }
+        return true;
+    }
+
+    @Override
+    public boolean unlock() {
+        if (leasePolicy != null && acquiredNanos != 0L) {
+            ScheduledFuture<?> pending = renewal;
+            if (pending != null) {
+                pending.cancel(false);
+            }
+            leasePolicy.recordHold(key, System.nanoTime() - acquiredNanos);
+        }
+        Long released = redisTemplate.execute(UNLOCK_SCRIPT, List.of(key), token, PubSubWaitStrategy.CHANNEL_PREFIX + key);
+        return released != null && released == 1L;
+    }
+
+    @Override
+    public String getKey() {
+        return key;
+    }
+
+    private boolean tryAcquire() {
+        if (leasePolicy == null) {
+            return Boolean.TRUE.equals(redisTemplate.opsForValue().setIfAbsent(key, token, leaseMillis, TimeUnit.MILLISECONDS));
+        }
+        long lease = leasePolicy.leaseMillis(key);
+        if (!Boolean.TRUE.equals(redisTemplate.opsForValue().setIfAbsent(key, token, lease, TimeUnit.MILLISECONDS))) {
+            return false;
+        }
+        acquiredNanos = System.nanoTime();
+        scheduleRenewal(lease);
+        return true;
+    }
+
+    /**
+     * 租期快到期時若鎖仍是自己的，依最新的租期再延長一次並排定下一次檢查；鎖已不是自己的就停止。
+     */
+    private void scheduleRenewal(long lease) {
+        renewal = leasePolicy.scheduleRenewal(key, lease, () -> {
+            long next = leasePolicy.leaseMillis(key);
+            Long renewed = redisTemplate.execute(RENEW_SCRIPT, List.of(key), token, String.valueOf(next));
+            if (renewed != null && renewed == 1L) {
+                scheduleRenewal(next);
+            }
+        });
+    }
+}
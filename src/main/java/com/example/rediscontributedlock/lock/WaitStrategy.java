@@ -0,0 +1,15 @@
+package com.example.rediscontributedlock.lock;
+
+/**
+ * 取鎖失敗後的等待策略。
+ */
+public interface WaitStrategy {
+
+    /**
+     * 等待下一次嘗試取鎖的時機，最多等待 maxWaitNanos。
+     *
+     * @param key     鎖的鍵名
+     * @param attempt 已失敗的次數，從 1 開始
+     */
+    void await(String key, int attempt, long maxWaitNanos) throws InterruptedException;
+}
@@ -2,8 +2,17 @@ package com.example.rediscontributedlock.repository;
 
 import com.example.rediscontributedlock.entity.Course;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 @Repository
 public interface CourseRepository extends JpaRepository<Course, Long> {
+
+    // 單一語句的條件扣減，還有座位才扣，並遞增版本號；回傳 0 代表沒有座位
+    @Modifying
+    @Query("update Course c set c.availableSeats = c.availableSeats - 1, c.version = c.version + 1 " +
+        "where c.courseId = :courseId and c.availableSeats > 0")
+    int decrementAvailableSeats(@Param("courseId") Long courseId);
 }
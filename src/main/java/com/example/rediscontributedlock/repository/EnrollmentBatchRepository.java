@@ -0,0 +1,71 @@
+package com.example.rediscontributedlock.repository;
+
+import com.example.rediscontributedlock.entity.EnrollmentRecord;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 以 JDBC batch 寫入選課資料，給 write-behind 的消費者使用。
+ * EnrollmentRecord 的主鍵是 IDENTITY，Hibernate 無法對它做 insert batch，所以這裡直接用 JdbcTemplate。
+ */
+@Repository
+public class EnrollmentBatchRepository {
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    /**
+     * 同一門課程中已有選課紀錄的學生，write-behind 重送已寫入的訊息時用來略過這些學生。
+     */
+    public Set<Long> findEnrolledStudentIds(Long courseId, Collection<Long> studentIds) {
+        if (studentIds.isEmpty()) {
+            return Set.of();
+        }
+        String placeholders = String.join(", ", Collections.nCopies(studentIds.size(), "?"));
+        List<Object> args = new ArrayList<>(studentIds.size() + 1);
+        args.add(courseId);
+        args.addAll(studentIds);
+        return new HashSet<>(jdbcTemplate.queryForList(
+            "SELECT student_id FROM enrollment_record WHERE course_id = ? AND student_id IN (" + placeholders + ")",
+            Long.class, args.toArray()));
+    }
+
+    /**
+     * 以一條多列的 INSERT 寫入；不使用 INSERT IGNORE，唯一索引、外鍵或欄位長度等錯誤都會拋出例外，由呼叫端決定重試或移到死信。
+     */
+    public void insertEnrollmentRecords(List<EnrollmentRecord> records) {
+        if (records.isEmpty()) {
+            return;
+        }
+        StringBuilder sql = new StringBuilder("INSERT INTO enrollment_record (student_id, course_id, seat, enrollment_time) VALUES ");
+        List<Object> args = new ArrayList<>(records.size() * 4);
+        for (int i = 0; i < records.size(); i++) {
+            EnrollmentRecord record = records.get(i);
+            sql.append(i == 0 ? "(?, ?, ?, ?)" : ", (?, ?, ?, ?)");
+            args.add(record.getStudentId());
+            args.add(record.getCourseId());
+            args.add(record.getSeat());
+            args.add(record.getEnrollmentTime() == null ? null : Timestamp.valueOf(record.getEnrollmentTime()));
+        }
+        jdbcTemplate.update(sql.toString(), args.toArray());
+    }
+
+    /**
+     * 扣掉一門課程這一批的選課人數，和 CourseRepository.decrementAvailableSeats 一樣只在座位足夠時扣減；
+     * 回傳更新的列數，0 代表座位不足（或課程不存在），沒有扣減。
+     */
+    public int decrementAvailableSeats(Long courseId, int count) {
+        return jdbcTemplate.update(
+            "UPDATE course SET available_seats = available_seats - ?, version = version + 1 WHERE course_id = ? AND available_seats >= ?",
+            count, courseId, count);
+    }
+}
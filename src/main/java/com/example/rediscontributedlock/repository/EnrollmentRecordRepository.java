@@ -2,10 +2,17 @@ package com.example.rediscontributedlock.repository;
 
 import com.example.rediscontributedlock.entity.EnrollmentRecord;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+
+import java.util.List;
 
 public interface EnrollmentRecordRepository extends JpaRepository<EnrollmentRecord, Long> {
     // Add method to count enrollments by course ID
     long countByCourseId(Long courseId);
 
     boolean existsByStudentIdAndCourseId(Long studentId, long courseId);
+
+    // 只取出課程與學生 ID，用於重建 Redis 的已選課學生集合
+    @Query("select e.courseId, e.studentId from EnrollmentRecord e")
+    List<Object[]> findAllCourseIdAndStudentId();
 }
@@ -1,33 +1,115 @@
 package com.example.rediscontributedlock.service;
 
-import com.example.rediscontributedlock.entity.Course;
 import com.example.rediscontributedlock.entity.EnrollmentRecord;
+import com.example.rediscontributedlock.lock.AsyncLocks;
+import com.example.rediscontributedlock.lock.LockKeys;
+import com.example.rediscontributedlock.lock.LockMetrics;
+import com.example.rediscontributedlock.lock.LockOwnerIds;
 import com.example.rediscontributedlock.repository.CourseRepository;
+import com.example.rediscontributedlock.repository.EnrollmentBatchRepository;
 import com.example.rediscontributedlock.repository.EnrollmentRecordRepository;
 import org.redisson.api.RLock;
 import org.redisson.api.RedissonClient;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.data.redis.core.HashOperations;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+import reactor.core.publisher.Mono;
 
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 @Service
 public class CourseService {
 
+    //write-behind 佇列：已在 Redis 確認、尚未寫入 MySQL 的選課
+    public static final String ENROLLMENT_STREAM_KEY = "course:enrollment:stream";
+
+    public static final String ENROLLMENT_STREAM_GROUP = "enrollment-writer";
+
+    //格式錯誤或多次寫入失敗的選課訊息，保留原始欄位與原因，供人工處理
+    public static final String ENROLLMENT_DEAD_LETTER_KEY = "course:enrollment:dead-letter";
+
+    /**
+     * 在 Redis 端原子地確認座位並放入 write-behind 佇列：
+     * 座位必須是 available、學生尚未選過這門課、也沒有未逾時的座位保留（ReservationService），
+     * 成功時標記座位、記錄學生，並 XADD 一筆選課訊息。
+     * 回傳值：1 選課成功；0 座位已被佔用；-1 學生已經選過；-2 學生保留中的座位尚未確認或取消。
+     */
+    private static final DefaultRedisScript<Long> CONFIRM_SEAT_SCRIPT = new DefaultRedisScript<>(
+        "if redis.call('hget', KEYS[1], ARGV[1]) ~= 'available' then return 0 end " +
+            "if redis.call('sismember', KEYS[2], ARGV[2]) == 1 then return -1 end " +
+            "local holdUntil = redis.call('zscore', KEYS[4], ARGV[2]) " +
+            "if holdUntil then " +
+            "  local t = redis.call('time') " +
+            "  if tonumber(holdUntil) >= tonumber(t[1]) * 1000 + math.floor(tonumber(t[2]) / 1000) then return -2 end " +
+            "end " +
+            "redis.call('hset', KEYS[1], ARGV[1], ARGV[2]) " +
+            "redis.call('sadd', KEYS[2], ARGV[2]) " +
+            "redis.call('xadd', KEYS[3], '*', 'studentId', ARGV[2], 'courseId', ARGV[3], 'seat', ARGV[1], 'enrollmentTime', ARGV[4]) " +
+            "return 1", Long.class);
+
     @Autowired
     private RedissonClient redissonClient;
 
     @Autowired
     private StringRedisTemplate redisTemplate;
 
+    @Autowired
+    private ReactiveStringRedisTemplate reactiveRedisTemplate;
+
     @Autowired
     private EnrollmentRecordRepository enrollmentRecordRepository;
     @Autowired
     private CourseRepository courseRepository;
 
+    @Autowired
+    private EnrollmentBatchRepository enrollmentBatchRepository;
+
+    @Autowired
+    private LockMetrics lockMetrics;
+
+    @Autowired
+    @Qualifier("transactionManager")
+    private PlatformTransactionManager transactionManager;
+
+    //每門課程的座位鎖分段數，座位依雜湊值落在其中一段，讓上千個座位的課程鎖物件數量仍有上限
+    @Value("${course.lock.stripes:64}")
+    private int lockStripes;
+
+    //是否同時鎖住學生，防止同一學生並發選同一門課的不同座位
+    @Value("${course.lock.per-student:true}")
+    private boolean lockPerStudent;
+
+    //取鎖的等待時間，分段碰撞時短暫等待而不是直接失敗
+    @Value("${course.lock.wait-millis:200}")
+    private long lockWaitMillis;
+
+    //非同步選課取得鎖後執行資料庫操作的執行緒池，大小由 course.enrollment-executor.threads 設定（CourseExecutorConfig）
+    @Autowired
+    @Qualifier("enrollmentExecutor")
+    private Executor enrollmentExecutor;
+
     /**
      * Redisson 鎖的核心貢獻是通過分布式鎖機制，將以下操作串聯在一個原子性事務中：
      * 檢查座位狀態
@@ -37,50 +119,17 @@ public class CourseService {
      * //這樣即使多個請求同時嘗試操作同一個課程的座位，也可以避免資料的不一致和資源爭奪問題。
      **/
     public boolean enrollCourseV1(Long studentId, Long courseId, String seat) {
-        //利用 Redisson 提供的分布式鎖功能，為每門課程的座位設置一個獨立的鎖（course:lock:<courseId>:<seat>）。
-        String lockKey = "course:lock:" + courseId + "seat"; // 鎖的鍵名
-        RLock lock = redissonClient.getLock(lockKey);
-        String courseKey = "course:data:" + courseId; // 座位數據的鍵名
+        //利用 Redisson 提供的分布式鎖功能，為每門課程的座位設置一個獨立的鎖（lock:{course:data:<courseId>}:seat:<seatStripe>）。
+        RLock lock = getEnrollmentLock(studentId, courseId, seat);
+        LockMetrics.Tracker tracker = lockMetrics.begin(metricsKey(courseId));
 
         try {
             //使用 tryLock() 方法嘗試獲取鎖，如果獲取成功，則進行選課邏輯。
-            //如果無法獲取鎖（例如，其他學生正在處理該課程），則返回選課失敗。
-            if (lock.tryLock()) {
-                // 檢查座位狀態
-                HashOperations<String, String, String> hashOps = redisTemplate.opsForHash();
-                // 檢查座位是否可用
-                String seatStatus = hashOps.get(courseKey, seat);
-                System.out.println("座位狀態：" + seatStatus);
-                System.out.println("studentId: "+ studentId);
-               //檢查座位是否已被其他並發請求修改
-                if ("available".equals(seatStatus)) {
-                    //檢查學生是否已經選過
-                    boolean alreadyEnrolled = enrollmentRecordRepository.existsByStudentIdAndCourseId(studentId, courseId);
-                    if (alreadyEnrolled) {
-                        System.out.println("學生 " + studentId + " 已經選擇過課程 " + courseId + "，無法重複選擇座位。");
-                        return false; // 防止同一學生對同一課程多次選擇座位
-                    }
-                    // 更新課程的可用座位數
-                    Course course = courseRepository.findById(courseId).orElseThrow();
-                    int availableSeats = course.getAvailableSeats();
-                    if (availableSeats > 0) {
-                        course.setAvailableSeats(availableSeats - 1);
-                        courseRepository.save(course);
-                    }
-                    // 創建並保存選課記錄
-                    EnrollmentRecord record = new EnrollmentRecord();
-                    record.setStudentId(studentId);
-                    record.setCourseId(courseId);
-                    record.setSeat(seat);
-                    enrollmentRecordRepository.save(record);
-
-                    // 標記座位為此學生選擇
-                    hashOps.put(courseKey, seat, studentId.toString());
-                    return true; // 選課成功
-                } else {
-                    System.out.println("座位 " + seat + " 已被佔用。");
-                    return false; // 座位已被佔用
-                }
+            //如果在等待時間內無法獲取鎖（例如，其他學生正在處理同一個座位），則返回選課失敗。
+            boolean locked = lock.tryLock(lockWaitMillis, TimeUnit.MILLISECONDS);
+            tracker.acquired(locked);
+            if (locked) {
+                return enrollLocked(studentId, courseId, seat);
             } else {
                 System.out.println("無法獲取鎖，選課失敗。");
                 return false; // 無法獲取鎖
@@ -92,10 +141,226 @@ public class CourseService {
             if (lock.isHeldByCurrentThread()) {
                 lock.unlock(); // 確保在完成後釋放鎖
             }
+            tracker.released();
         }
     }
 
+    /**
+     * 需在持有選課鎖時呼叫：檢查座位與重複選課，更新座位數、寫入選課紀錄並標記座位。
+     */
+    private boolean enrollLocked(Long studentId, Long courseId, String seat) {
+        String courseKey = "course:data:" + courseId; // 座位數據的鍵名
+        // 檢查座位狀態
+        HashOperations<String, String, String> hashOps = redisTemplate.opsForHash();
+        // 檢查座位是否可用
+        String seatStatus = hashOps.get(courseKey, seat);
+        System.out.println("座位狀態：" + seatStatus);
+        System.out.println("studentId: "+ studentId);
+        //檢查座位是否已被其他並發請求修改
+        if ("available".equals(seatStatus)) {
+            //檢查學生是否已經選過，查 Redis 的已選課學生集合，不再掃描選課紀錄表
+            boolean alreadyEnrolled = Boolean.TRUE.equals(
+                redisTemplate.opsForSet().isMember(enrolledKey(courseId), studentId.toString()));
+            if (alreadyEnrolled) {
+                System.out.println("學生 " + studentId + " 已經選擇過課程 " + courseId + "，無法重複選擇座位。");
+                return false; // 防止同一學生對同一課程多次選擇座位
+            }
+            // 更新課程的可用座位數並寫入選課紀錄：以條件 UPDATE 扣減，不讀出 Course 再整筆 save，
+            // 同一課程不同座位分段的並發選課不會因 @Version 衝突而失敗
+            new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+                courseRepository.decrementAvailableSeats(courseId);
+                EnrollmentRecord record = new EnrollmentRecord();
+                record.setStudentId(studentId);
+                record.setCourseId(courseId);
+                record.setSeat(seat);
+                enrollmentRecordRepository.save(record);
+            });
+            redisTemplate.opsForSet().add(enrolledKey(courseId), studentId.toString());
+
+            // 標記座位為此學生選擇
+            hashOps.put(courseKey, seat, studentId.toString());
+            return true; // 選課成功
+        } else {
+            System.out.println("座位 " + seat + " 已被佔用。");
+            return false; // 座位已被佔用
+        }
+    }
+
+    /**
+     * enrollCourseV1 的非同步版本：以 Redisson 非同步 API 取鎖，鎖的持有者是邏輯任務 ID 而不是執行緒，
+     * 等鎖期間不佔用任何執行緒；取得鎖後資料庫操作交給 enrollmentExecutor 執行，完成後非同步解鎖。
+     **/
+    public CompletableFuture<Boolean> enrollCourseV1Async(Long studentId, Long courseId, String seat) {
+        long taskId = LockOwnerIds.next();
+        RLock lock = getEnrollmentLock(studentId, courseId, seat);
+        LockMetrics.Tracker tracker = lockMetrics.begin(metricsKey(courseId));
+        return lock.tryLockAsync(lockWaitMillis, -1, TimeUnit.MILLISECONDS, taskId).toCompletableFuture()
+            .whenComplete((locked, ex) -> tracker.acquired(Boolean.TRUE.equals(locked)))
+            .thenCompose(locked -> {
+                if (!locked) {
+                    System.out.println("無法獲取鎖，選課失敗。");
+                    return CompletableFuture.completedFuture(false);
+                }
+                return AsyncLocks.runAndUnlock(lock, taskId, tracker,
+                    () -> CompletableFuture.supplyAsync(() -> enrollLocked(studentId, courseId, seat), enrollmentExecutor));
+            })
+            .exceptionally(e -> {
+                System.err.println("選課過程中出現錯誤: " + e.getMessage());
+                return false;
+            });
+    }
 
+    /**
+     * write-behind 選課：座位確認、重複選課檢查與寫入佇列都在一段 Lua 腳本中完成，一次 Redis 往返，不需要持有分布式鎖，
+     * 也不在請求路徑上存取 MySQL。選課紀錄與座位數由 EnrollmentWriteBehindConsumer 批次寫入資料庫。
+     **/
+    public boolean enrollCourseV2(Long studentId, Long courseId, String seat) {
+        List<String> keys = seatScriptKeys(courseId);
+        Long status = redisTemplate.execute(CONFIRM_SEAT_SCRIPT, keys,
+            seat, studentId.toString(), courseId.toString(), LocalDateTime.now().toString());
 
+        if (status != null && status == 1L) {
+            return true; // 選課成功，等待寫入資料庫
+        } else if (status != null && status == -1L) {
+            System.out.println("學生 " + studentId + " 已經選擇過課程 " + courseId + "，無法重複選擇座位。");
+        } else if (status != null && status == -2L) {
+            System.out.println("學生 " + studentId + " 在課程 " + courseId + " 有保留中的座位，需先確認或取消。");
+        } else {
+            System.out.println("座位 " + seat + " 已被佔用。");
+        }
+        return false;
+    }
 
+    /**
+     * 不使用分布式鎖的資料庫選課：
+     * 以單一條件 UPDATE 扣減座位數（還有座位才扣），再寫入選課紀錄，兩者在同一個交易中；
+     * 重複選課與重複座位由 enrollment_record 的唯一索引擋下，違反時整個交易回滾，座位數也一併還原。
+     * Redis 的座位狀態只做快速拒絕，交易提交後再更新。
+     **/
+    public boolean enrollCourseV3(Long studentId, Long courseId, String seat) {
+        String courseKey = "course:data:" + courseId;
+        HashOperations<String, String, String> hashOps = redisTemplate.opsForHash();
+        if (!"available".equals(hashOps.get(courseKey, seat))) {
+            System.out.println("座位 " + seat + " 已被佔用。");
+            return false;
+        }
+
+        Boolean enrolled;
+        try {
+            enrolled = new TransactionTemplate(transactionManager).execute(status -> {
+                if (courseRepository.decrementAvailableSeats(courseId) == 0) {
+                    return false; // 課程已無座位
+                }
+                EnrollmentRecord record = new EnrollmentRecord();
+                record.setStudentId(studentId);
+                record.setCourseId(courseId);
+                record.setSeat(seat);
+                record.setEnrollmentTime(LocalDateTime.now());
+                enrollmentRecordRepository.saveAndFlush(record);
+                return true;
+            });
+        } catch (DataIntegrityViolationException e) {
+            System.out.println("學生 " + studentId + " 已選過課程 " + courseId + " 或座位 " + seat + " 已被佔用。");
+            return false;
+        }
+
+        if (Boolean.TRUE.equals(enrolled)) {
+            hashOps.put(courseKey, seat, studentId.toString());
+            redisTemplate.opsForSet().add(enrolledKey(courseId), studentId.toString());
+            return true;
+        }
+        System.out.println("課程 " + courseId + " 已無座位。");
+        return false;
+    }
+
+    /**
+     * enrollCourseV2 的 reactive 版本，同一段 Lua 腳本改由 reactive Lettuce 連線執行，不佔用任何執行緒。
+     **/
+    public Mono<Boolean> enrollCourseV2Reactive(Long studentId, Long courseId, String seat) {
+        List<String> keys = seatScriptKeys(courseId);
+        return reactiveRedisTemplate.execute(CONFIRM_SEAT_SCRIPT, keys,
+                List.of(seat, studentId.toString(), courseId.toString(), LocalDateTime.now().toString()))
+            .next()
+            .map(status -> status == 1L)
+            .defaultIfEmpty(false);
+    }
+
+    /**
+     * 批次寫入選課紀錄，以課程分組，每門課程的座位數變動合併成一條 UPDATE。
+     * 已有選課紀錄的學生視為重送而略過，座位只扣實際寫入的筆數，重送已寫入的選課時不會失敗也不會重複扣減；
+     * 其他寫入錯誤照常拋出。座位數不足時同樣拋出例外，整批回滾，由 EnrollmentWriteBehindConsumer 改為逐筆寫入、重試或移到死信。
+     */
+    @Transactional("transactionManager")
+    public void persistEnrollments(List<EnrollmentRecord> records) {
+        Map<Long, List<EnrollmentRecord>> recordsByCourse = new HashMap<>();
+        for (EnrollmentRecord record : records) {
+            recordsByCourse.computeIfAbsent(record.getCourseId(), k -> new ArrayList<>()).add(record);
+        }
+        recordsByCourse.forEach((courseId, courseRecords) -> {
+            Set<Long> enrolled = enrollmentBatchRepository.findEnrolledStudentIds(courseId,
+                courseRecords.stream().map(EnrollmentRecord::getStudentId).collect(Collectors.toSet()));
+            List<EnrollmentRecord> newRecords = courseRecords.stream()
+                .filter(record -> !enrolled.contains(record.getStudentId()))
+                .collect(Collectors.toList());
+            if (newRecords.size() < courseRecords.size()) {
+                System.out.println("課程 " + courseId + " 略過已存在的選課紀錄 " + (courseRecords.size() - newRecords.size()) + " 筆");
+            }
+            if (newRecords.isEmpty()) {
+                return;
+            }
+            enrollmentBatchRepository.insertEnrollmentRecords(newRecords);
+            if (enrollmentBatchRepository.decrementAvailableSeats(courseId, newRecords.size()) == 0) {
+                throw new IllegalStateException("課程 " + courseId + " 剩餘座位不足 " + newRecords.size() + " 位，無法寫入選課紀錄");
+            }
+        });
+    }
+
+    /**
+     * 啟動時由選課紀錄表重建每門課程的已選課學生集合。
+     * 只做 SADD 不先刪除，避免把尚在 write-behind 佇列、未寫入資料庫的選課清掉。
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void rebuildEnrolledStudents() {
+        List<Object[]> enrollments = enrollmentRecordRepository.findAllCourseIdAndStudentId();
+        Map<Long, List<String>> studentsByCourse = new HashMap<>();
+        for (Object[] enrollment : enrollments) {
+            studentsByCourse.computeIfAbsent((Long) enrollment[0], k -> new ArrayList<>()).add(enrollment[1].toString());
+        }
+        redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            studentsByCourse.forEach((courseId, students) -> connection.setCommands().sAdd(
+                enrolledKey(courseId).getBytes(StandardCharsets.UTF_8),
+                students.stream().map(student -> student.getBytes(StandardCharsets.UTF_8)).toArray(byte[][]::new)));
+            return null;
+        });
+        System.out.println("重建已選課學生集合，課程數: " + studentsByCourse.size() + "，選課紀錄數: " + enrollments.size());
+    }
+
+    /**
+     * 指標的 key 標籤只到課程層級，不含座位分段與學生，避免標籤數量隨座位與學生膨脹。
+     */
+    private String metricsKey(Long courseId) {
+        return LockKeys.course(courseId);
+    }
+
+    private String enrolledKey(Long courseId) {
+        return "course:enrolled:" + courseId;
+    }
+
+    private List<String> seatScriptKeys(Long courseId) {
+        return List.of("course:data:" + courseId, enrolledKey(courseId), ENROLLMENT_STREAM_KEY, ReservationService.seatHoldsKey(courseId));
+    }
+
+    /**
+     * 座位鎖：lock:{course:data:<courseId>}:seat:<seatStripe>；開啟 per-student 時再加上 lock:{course:data:<courseId>}:student:<studentId>，
+     * 兩把鎖以 MultiLock 一起取得，都和課程的座位資料位於同一個 slot。
+     */
+    private RLock getEnrollmentLock(Long studentId, Long courseId, String seat) {
+        int stripe = Math.floorMod(seat.hashCode(), lockStripes);
+        RLock seatLock = redissonClient.getLock(LockKeys.course(courseId, "seat", stripe));
+        if (!lockPerStudent) {
+            return seatLock;
+        }
+        RLock studentLock = redissonClient.getLock(LockKeys.course(courseId, "student", studentId));
+        return redissonClient.getMultiLock(seatLock, studentLock);
+    }
 }
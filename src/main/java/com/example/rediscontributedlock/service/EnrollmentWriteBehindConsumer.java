@@ -0,0 +1,190 @@
+package com.example.rediscontributedlock.service;
+
+import com.example.rediscontributedlock.entity.EnrollmentRecord;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.TransientDataAccessException;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.stream.Consumer;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.PendingMessage;
+import org.springframework.data.redis.connection.stream.PendingMessages;
+import org.springframework.data.redis.connection.stream.ReadOffset;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.connection.stream.StreamOffset;
+import org.springframework.data.redis.connection.stream.StreamReadOptions;
+import org.springframework.data.redis.connection.stream.StreamRecords;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.TransactionException;
+
+import javax.annotation.PostConstruct;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 選課 write-behind 的消費者：從 Redis Stream 批次讀出已在 Redis 確認的選課，寫入 MySQL 後再 ACK。
+ * 每次輪詢都先讀新的訊息，寫入失敗的訊息留在 pending 中，閒置超過 retry-idle-millis 後以 XCLAIM 取回重試，
+ * 已停止的節點留下的訊息也以同樣方式接手；失敗的訊息不會擋住後面的新訊息。
+ * 批次寫入失敗時改為逐筆寫入，只有出錯的那幾筆留在 pending；格式錯誤，或資料錯誤（非連線問題）已達 max-deliveries 次的訊息
+ * 移到死信 stream（ENROLLMENT_DEAD_LETTER_KEY）並 ACK。寫入本身是冪等的，提交後、ACK 前當機造成的重送不會重複扣座位。
+ */
+@Slf4j
+@Component
+public class EnrollmentWriteBehindConsumer {
+
+    @Autowired
+    private StringRedisTemplate redisTemplate;
+
+    @Autowired
+    private CourseService courseService;
+
+    @Value("${course.write-behind.consumer:}")
+    private String configuredConsumerName;
+
+    @Value("${course.write-behind.batch-size:500}")
+    private int batchSize;
+
+    @Value("${course.write-behind.retry-idle-millis:30000}")
+    private long retryIdleMillis;
+
+    @Value("${course.write-behind.max-deliveries:5}")
+    private long maxDeliveries;
+
+    private String consumerName;
+
+    @PostConstruct
+    public void createGroup() {
+        consumerName = StreamConsumerNames.resolve(configuredConsumerName, "enrollment");
+        try {
+            redisTemplate.opsForStream().createGroup(CourseService.ENROLLMENT_STREAM_KEY, ReadOffset.from("0"), CourseService.ENROLLMENT_STREAM_GROUP);
+        } catch (Exception e) {
+            // 群組已存在（BUSYGROUP）時忽略
+            log.info("選課 stream 群組已存在: {}", e.getMessage());
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${course.write-behind.poll-millis:200}")
+    public void flush() {
+        List<MapRecord<String, Object, Object>> messages = redisTemplate.opsForStream().read(
+            Consumer.from(CourseService.ENROLLMENT_STREAM_GROUP, consumerName),
+            StreamReadOptions.empty().count(batchSize),
+            StreamOffset.create(CourseService.ENROLLMENT_STREAM_KEY, ReadOffset.lastConsumed()));
+        if (messages != null && !messages.isEmpty()) {
+            persist(messages, Map.of());
+        }
+        retryPending();
+    }
+
+    /**
+     * 取回閒置超過 retry-idle-millis 的 pending 訊息重試；XCLAIM 帶 min-idle，多個節點不會同時接手同一筆。
+     */
+    private void retryPending() {
+        PendingMessages pending = redisTemplate.opsForStream().pending(
+            CourseService.ENROLLMENT_STREAM_KEY, CourseService.ENROLLMENT_STREAM_GROUP, Range.unbounded(), batchSize);
+        Duration minIdle = Duration.ofMillis(retryIdleMillis);
+        Map<String, Long> deliveries = new HashMap<>();
+        List<RecordId> ids = new ArrayList<>();
+        for (PendingMessage message : pending) {
+            if (message.getElapsedTimeSinceLastDelivery().compareTo(minIdle) >= 0) {
+                //XCLAIM 會再加一次投遞次數
+                deliveries.put(message.getIdAsString(), message.getTotalDeliveryCount() + 1);
+                ids.add(message.getId());
+            }
+        }
+        if (ids.isEmpty()) {
+            return;
+        }
+        List<MapRecord<String, Object, Object>> claimed = redisTemplate.opsForStream().claim(
+            CourseService.ENROLLMENT_STREAM_KEY, CourseService.ENROLLMENT_STREAM_GROUP, consumerName, minIdle, ids.toArray(RecordId[]::new));
+        if (!claimed.isEmpty()) {
+            log.info("重試未 ACK 的選課訊息{}筆", claimed.size());
+            persist(claimed, deliveries);
+        }
+    }
+
+    /**
+     * deliveries 為重試訊息的投遞次數，新讀到的訊息不在其中，視為第 1 次。
+     */
+    private void persist(List<MapRecord<String, Object, Object>> messages, Map<String, Long> deliveries) {
+        List<RecordId> done = new ArrayList<>();
+        Map<RecordId, EnrollmentRecord> records = new LinkedHashMap<>();
+        for (MapRecord<String, Object, Object> message : messages) {
+            try {
+                records.put(message.getId(), toRecord(message.getValue()));
+            } catch (RuntimeException e) {
+                deadLetter(message, "格式錯誤: " + e.getMessage());
+                done.add(message.getId());
+            }
+        }
+
+        if (!records.isEmpty()) {
+            try {
+                courseService.persistEnrollments(new ArrayList<>(records.values()));
+                done.addAll(records.keySet());
+            } catch (Exception e) {
+                log.error("選課批次寫入失敗，改為逐筆寫入: {}", e.getMessage());
+                for (MapRecord<String, Object, Object> message : messages) {
+                    EnrollmentRecord record = records.get(message.getId());
+                    if (record != null && persistOne(message, record, deliveries.getOrDefault(message.getId().getValue(), 1L))) {
+                        done.add(message.getId());
+                    }
+                }
+            }
+        }
+
+        if (done.isEmpty()) {
+            return;
+        }
+        RecordId[] ids = done.toArray(RecordId[]::new);
+        redisTemplate.opsForStream().acknowledge(CourseService.ENROLLMENT_STREAM_KEY, CourseService.ENROLLMENT_STREAM_GROUP, ids);
+        redisTemplate.opsForStream().delete(CourseService.ENROLLMENT_STREAM_KEY, ids);
+        log.info("寫入選課紀錄{}筆", ids.length);
+    }
+
+    /**
+     * 回傳 true 代表這筆已寫入或已移到死信，可以 ACK；資料庫無法連線或暫時性錯誤時不計入死信的次數，一律留在 pending。
+     */
+    private boolean persistOne(MapRecord<String, Object, Object> message, EnrollmentRecord record, long delivery) {
+        try {
+            courseService.persistEnrollments(List.of(record));
+            return true;
+        } catch (Exception e) {
+            boolean unavailable = e instanceof DataAccessResourceFailureException
+                || e instanceof TransientDataAccessException
+                || e instanceof TransactionException;
+            if (!unavailable && delivery >= maxDeliveries) {
+                deadLetter(message, "寫入失敗" + delivery + "次: " + e.getMessage());
+                return true;
+            }
+            log.error("選課紀錄{}寫入失敗（第{}次），稍後重試: {}", message.getId(), delivery, e.getMessage());
+            return false;
+        }
+    }
+
+    private void deadLetter(MapRecord<String, Object, Object> message, String reason) {
+        Map<String, String> fields = new LinkedHashMap<>();
+        message.getValue().forEach((field, value) -> fields.put(String.valueOf(field), String.valueOf(value)));
+        fields.put("sourceId", message.getId().getValue());
+        fields.put("reason", reason);
+        redisTemplate.opsForStream().add(StreamRecords.string(fields).withStreamKey(CourseService.ENROLLMENT_DEAD_LETTER_KEY));
+        log.error("選課訊息{}移到死信: {}", message.getId(), reason);
+    }
+
+    private EnrollmentRecord toRecord(Map<Object, Object> fields) {
+        EnrollmentRecord record = new EnrollmentRecord();
+        record.setStudentId(Long.valueOf(fields.get("studentId").toString()));
+        record.setCourseId(Long.valueOf(fields.get("courseId").toString()));
+        record.setSeat(fields.get("seat").toString());
+        record.setEnrollmentTime(LocalDateTime.parse(fields.get("enrollmentTime").toString()));
+        return record;
+    }
+}
@@ -0,0 +1,196 @@
+package com.example.rediscontributedlock.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.stream.Consumer;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.PendingMessage;
+import org.springframework.data.redis.connection.stream.PendingMessages;
+import org.springframework.data.redis.connection.stream.ReadOffset;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.connection.stream.StreamOffset;
+import org.springframework.data.redis.connection.stream.StreamReadOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 排隊搶票的消費者：每次從 stream 讀出一批（flash-sale.batch-size 筆）排隊請求，以一次 Lua 依排隊順序扣減票數、
+ * 寫入結果並 ACK、刪除訊息，一批數百筆只需要兩次往返（XREADGROUP 與 EVALSHA）。
+ * 結果與 ACK 在同一個腳本中完成：腳本沒有執行時訊息留在 pending，閒置超過 flash-sale.retry-idle-millis 後以 XCLAIM 取回重新處理
+ * （已停止的節點留下的訊息也一樣）；已有結果的排隊號碼不會重複扣減，失敗的批次也不會擋住後面的新訊息。
+ * 消費者名稱預設為 flash-sale-主機名稱-pid，每個節點不同；同一批內依序處理，批次之間的順序則不保證，需要嚴格先到先得時只啟用一個節點。
+ * drain 在自己的排程執行緒（flash-sale-drain）上執行，不和其他 @Scheduled 工作共用 Spring 的排程執行緒池，
+ * 開賣時長時間的 drain 不會卡住選課 write-behind 與保留回收，反過來也不會被它們拖慢。
+ */
+@Slf4j
+@Component
+public class FlashSaleConsumer {
+
+    // KEYS[1] 票數 KEYS[2] 結果 hash KEYS[3] stream；ARGV[1] 群組 ARGV[2] 結果保存秒數，其後為排隊號碼
+    // 結果：扣減後的剩餘票數，-1 已售完，-2 無票數的緩存；回傳 {排隊號碼, 結果, ...}
+    static final DefaultRedisScript<List> PROCESS_BATCH_SCRIPT = new DefaultRedisScript<>(
+        "local stock = tonumber(redis.call('get', KEYS[1])) " +
+            "local out = {} " +
+            "local ids = {} " +
+            "for i = 3, #ARGV do " +
+            "  local id = ARGV[i] " +
+            "  local outcome = redis.call('hget', KEYS[2], id) " +
+            "  if not outcome then " +
+            "    if stock == nil then outcome = '-2' " +
+            "    elseif stock > 0 then stock = stock - 1; outcome = tostring(stock) " +
+            "    else outcome = '-1' end " +
+            "    redis.call('hset', KEYS[2], id, outcome) " +
+            "  end " +
+            "  ids[#ids + 1] = id " +
+            "  out[#out + 1] = id " +
+            "  out[#out + 1] = outcome " +
+            "end " +
+            "if stock ~= nil then redis.call('set', KEYS[1], stock) end " +
+            "redis.call('expire', KEYS[2], ARGV[2]) " +
+            "redis.call('xack', KEYS[3], ARGV[1], unpack(ids)) " +
+            "redis.call('xdel', KEYS[3], unpack(ids)) " +
+            "return out",
+        List.class);
+
+    @Autowired
+    private StringRedisTemplate redisTemplate;
+
+    @Autowired
+    private FlashSaleQueueService flashSaleQueueService;
+
+    @Value("${flash-sale.consumer:}")
+    private String configuredConsumerName;
+
+    @Value("${flash-sale.batch-size:500}")
+    private int batchSize;
+
+    @Value("${flash-sale.result-ttl-seconds:3600}")
+    private long resultTtlSeconds;
+
+    @Value("${flash-sale.retry-idle-millis:5000}")
+    private long retryIdleMillis;
+
+    @Value("${flash-sale.poll-millis:20}")
+    private long pollMillis;
+
+    private String consumerName;
+
+    private final ScheduledExecutorService drainScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "flash-sale-drain");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    @PostConstruct
+    public void createGroup() {
+        consumerName = StreamConsumerNames.resolve(configuredConsumerName, "flash-sale");
+        try {
+            redisTemplate.opsForStream().createGroup(FlashSaleQueueService.QUEUE_KEY, ReadOffset.from("0"), FlashSaleQueueService.QUEUE_GROUP);
+        } catch (Exception e) {
+            // 群組已存在（BUSYGROUP）時忽略
+            log.info("排隊搶票 stream 群組已存在: {}", e.getMessage());
+        }
+        drainScheduler.scheduleWithFixedDelay(this::drainSafely, pollMillis, pollMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        drainScheduler.shutdownNow();
+    }
+
+    //scheduleWithFixedDelay 遇到例外會停止後續的執行，這裡記錄後繼續
+    private void drainSafely() {
+        try {
+            drain();
+        } catch (Exception e) {
+            log.error("排隊搶票 drain 失敗，下次輪詢重試: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 讀到滿批時不等下一次排程，直接繼續處理，直到佇列清空；之後再取回閒置過久的 pending 訊息。
+     */
+    public void drain() {
+        while (true) {
+            List<MapRecord<String, Object, Object>> messages = redisTemplate.opsForStream().read(
+                Consumer.from(FlashSaleQueueService.QUEUE_GROUP, consumerName),
+                StreamReadOptions.empty().count(batchSize),
+                StreamOffset.create(FlashSaleQueueService.QUEUE_KEY, ReadOffset.lastConsumed()));
+            if (messages == null || messages.isEmpty()) {
+                break;
+            }
+            if (!tryProcess(messages) || messages.size() < batchSize) {
+                break;
+            }
+        }
+        retryPending();
+    }
+
+    /**
+     * XCLAIM 帶 min-idle，多個節點不會同時接手同一批。
+     */
+    private void retryPending() {
+        PendingMessages pending = redisTemplate.opsForStream().pending(
+            FlashSaleQueueService.QUEUE_KEY, FlashSaleQueueService.QUEUE_GROUP, Range.unbounded(), batchSize);
+        Duration minIdle = Duration.ofMillis(retryIdleMillis);
+        List<RecordId> ids = new ArrayList<>();
+        for (PendingMessage message : pending) {
+            if (message.getElapsedTimeSinceLastDelivery().compareTo(minIdle) >= 0) {
+                ids.add(message.getId());
+            }
+        }
+        if (ids.isEmpty()) {
+            return;
+        }
+        List<MapRecord<String, Object, Object>> claimed = redisTemplate.opsForStream().claim(
+            FlashSaleQueueService.QUEUE_KEY, FlashSaleQueueService.QUEUE_GROUP, consumerName, minIdle, ids.toArray(RecordId[]::new));
+        if (!claimed.isEmpty()) {
+            log.info("重試未 ACK 的排隊請求{}筆", claimed.size());
+            tryProcess(claimed);
+        }
+    }
+
+    private boolean tryProcess(List<MapRecord<String, Object, Object>> messages) {
+        try {
+            process(messages);
+            return true;
+        } catch (Exception e) {
+            log.error("排隊搶票批次處理失敗，稍後重試: {}", e.getMessage());
+            return false;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void process(List<MapRecord<String, Object, Object>> messages) {
+        List<String> args = new ArrayList<>(messages.size() + 2);
+        args.add(FlashSaleQueueService.QUEUE_GROUP);
+        args.add(String.valueOf(resultTtlSeconds));
+        messages.forEach(message -> args.add(message.getId().getValue()));
+
+        long generation = flashSaleQueueService.soldOutGeneration();
+        List<Object> out = redisTemplate.execute(PROCESS_BATCH_SCRIPT,
+            List.of(FlashSaleQueueService.TICKET_KEY, FlashSaleQueueService.RESULTS_KEY, FlashSaleQueueService.QUEUE_KEY),
+            args.toArray());
+
+        Map<String, String> results = new LinkedHashMap<>();
+        for (int i = 0; i + 1 < out.size(); i += 2) {
+            results.put(out.get(i).toString(), out.get(i + 1).toString());
+        }
+        flashSaleQueueService.publishResults(results, generation);
+        log.info("排隊搶票處理{}筆", results.size());
+    }
+}
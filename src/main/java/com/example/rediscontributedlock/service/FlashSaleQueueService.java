@@ -0,0 +1,132 @@
+package com.example.rediscontributedlock.service;
+
+import com.example.rediscontributedlock.lock.LockKeys;
+import org.redisson.api.RTopic;
+import org.redisson.api.RedissonClient;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.connection.stream.StreamRecords;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import javax.annotation.PostConstruct;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * 排隊搶票：請求只 XADD 到 Redis Stream 並立即取得排隊號碼（stream 訊息 ID），由 FlashSaleConsumer 依序批次處理，
+ * 開賣瞬間的大量請求不再同時搶 getTicket 的鎖，吞吐量取決於每批的筆數而不是鎖的公平性。
+ * 結果寫入結果 hash（排隊號碼 -> 扣減後的剩餘票數，-1 已售完，-2 無票數的緩存），可輪詢；
+ * 每批處理完後透過 Redisson topic 廣播，等待中的長輪詢請求不論在哪個節點都會立即收到結果。
+ * 佇列與結果的鍵和 tickets:quantity 帶有相同的 hash tag，批次腳本在 Redis Cluster 上也只涉及一個 slot。
+ */
+@Service
+public class FlashSaleQueueService {
+
+    public static final String TICKET_KEY = "tickets:quantity";
+
+    public static final String QUEUE_KEY = "flashSale:{" + LockKeys.hashTag(TICKET_KEY) + "}:queue";
+
+    public static final String RESULTS_KEY = "flashSale:{" + LockKeys.hashTag(TICKET_KEY) + "}:results";
+
+    public static final String QUEUE_GROUP = "flash-sale-grabbers";
+
+    private static final String RESULT_TOPIC = "flashSale:results";
+
+    @Autowired
+    private StringRedisTemplate redisTemplate;
+
+    @Autowired
+    private RedissonClient redissonClient;
+
+    @Autowired
+    private SoldOutFlagService soldOutFlagService;
+
+    @Value("${flash-sale.await-timeout-millis:10000}")
+    private long awaitTimeoutMillis;
+
+    //本節點上等待結果的長輪詢請求；同一個排隊號碼可能同時有多個請求在等，各自帶著自己的回覆方式，最後一個離開時移除整個項目
+    private final ConcurrentMap<String, Map<DeferredResult<?>, Consumer<String>>> waiting = new ConcurrentHashMap<>();
+
+    private RTopic resultTopic;
+
+    @PostConstruct
+    @SuppressWarnings("unchecked")
+    public void subscribe() {
+        resultTopic = redissonClient.getTopic(RESULT_TOPIC);
+        resultTopic.addListener(Map.class, (channel, results) ->
+            ((Map<String, String>) results).forEach(this::complete));
+    }
+
+    /**
+     * 排隊，回傳排隊號碼；已售完時不排隊，直接回傳 null。
+     */
+    public String enqueue(String userId) {
+        if (soldOutFlagService.isSoldOut(TICKET_KEY)) {
+            return null;
+        }
+        RecordId id = redisTemplate.opsForStream().add(StreamRecords.string(Map.of("userId", userId)).withStreamKey(QUEUE_KEY));
+        return id == null ? null : id.getValue();
+    }
+
+    /**
+     * 查詢結果，尚未處理時回傳 null。
+     */
+    public Long getResult(String ticketId) {
+        Object value = redisTemplate.opsForHash().get(RESULTS_KEY, ticketId);
+        return value == null ? null : Long.valueOf(value.toString());
+    }
+
+    /**
+     * 長輪詢：結果出來時以 converter 轉換後回覆，逾時則回覆當下的狀態（可能仍在排隊，converter 收到 null）。
+     */
+    public <T> DeferredResult<T> awaitResult(String ticketId, Function<Long, T> converter) {
+        DeferredResult<T> deferred = new DeferredResult<>(awaitTimeoutMillis);
+        deferred.onTimeout(() -> deferred.setResult(converter.apply(getResult(ticketId))));
+        deferred.onCompletion(() -> waiting.computeIfPresent(ticketId, (id, waiters) -> {
+            waiters.remove(deferred);
+            return waiters.isEmpty() ? null : waiters;
+        }));
+        waiting.compute(ticketId, (id, waiters) -> {
+            Map<DeferredResult<?>, Consumer<String>> registered = waiters != null ? waiters : new ConcurrentHashMap<>();
+            registered.put(deferred, value -> deferred.setResult(converter.apply(value == null ? null : Long.valueOf(value))));
+            return registered;
+        });
+
+        //登記之前可能已經處理完，補查一次
+        Long result = getResult(ticketId);
+        if (result != null) {
+            deferred.setResult(converter.apply(result));
+        }
+        return deferred;
+    }
+
+    /**
+     * 售完旗標的補貨世代，FlashSaleConsumer 在執行批次之前取得，處理完後傳給 publishResults。
+     */
+    public long soldOutGeneration() {
+        return soldOutFlagService.generation(TICKET_KEY);
+    }
+
+    /**
+     * 由 FlashSaleConsumer 在每批處理完後呼叫，廣播給所有節點；票數歸零時設定售完旗標。
+     */
+    public void publishResults(Map<String, String> results, long generation) {
+        if (results.containsValue("0") || results.containsValue("-1")) {
+            soldOutFlagService.markSoldOut(TICKET_KEY, generation);
+        }
+        resultTopic.publish(results);
+    }
+
+    private void complete(String ticketId, String value) {
+        Map<DeferredResult<?>, Consumer<String>> waiters = waiting.remove(ticketId);
+        if (waiters != null) {
+            waiters.values().forEach(waiter -> waiter.accept(value));
+        }
+    }
+}
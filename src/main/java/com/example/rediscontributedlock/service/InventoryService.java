@@ -0,0 +1,119 @@
+package com.example.rediscontributedlock.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 多場活動、多個 SKU 的庫存。每個 SKU 一個庫存鍵 inventory:{eventId:sku}:stock，各自帶有 hash tag，
+ * 不同 SKU 可以分散在 Redis Cluster 的不同 slot，彼此不會搶同一個鍵，也不共用任何鎖。
+ * 每場活動另有一個 SKU 集合 inventory:event:{eventId}:skus，批次查詢不指定 SKU 時使用。
+ * 扣減沿用搶票的 Lua 腳本（RedisScripts.DECREMENT_STOCK_SCRIPT），售完旗標以庫存鍵為單位。
+ */
+@Service
+public class InventoryService {
+
+    @Autowired
+    private StringRedisTemplate redisTemplate;
+
+    @Autowired
+    private SoldOutFlagService soldOutFlagService;
+
+    /**
+     * 以 pipeline 一次寫入一場活動所有 SKU 的庫存並登記到活動的 SKU 集合，同時清除這些 SKU 的售完旗標。
+     */
+    public void loadStock(String eventId, Map<String, Long> stockBySku) {
+        checkId(eventId);
+        stockBySku.keySet().forEach(InventoryService::checkId);
+        byte[] skusKey = bytes(skusKey(eventId));
+        redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            stockBySku.forEach((sku, stock) -> {
+                connection.stringCommands().set(bytes(stockKey(eventId, sku)), bytes(String.valueOf(stock)));
+                connection.setCommands().sAdd(skusKey, bytes(sku));
+            });
+            return null;
+        });
+        stockBySku.keySet().forEach(sku -> soldOutFlagService.reset(stockKey(eventId, sku)));
+    }
+
+    /**
+     * 扣減一個 SKU 的庫存。回傳值：>= 0 為扣減後的剩餘數量；-1 已售完；-2 此 SKU 沒有庫存資料。
+     */
+    public long grab(String eventId, String sku) {
+        checkId(eventId);
+        checkId(sku);
+        String stockKey = stockKey(eventId, sku);
+        long generation = soldOutFlagService.generation(stockKey);
+        if (soldOutFlagService.isSoldOut(stockKey)) {
+            return -1L;
+        }
+        Long remaining = redisTemplate.execute(RedisScripts.DECREMENT_STOCK_SCRIPT, List.of(stockKey));
+        if (remaining == null) {
+            return -2L;
+        }
+        if (remaining == -1L) {
+            soldOutFlagService.markSoldOut(stockKey, generation);
+        }
+        return remaining;
+    }
+
+    /**
+     * 以 pipeline 一次往返讀取多個 SKU 的剩餘數量，skus 為空時讀取活動登記的所有 SKU；沒有庫存資料的 SKU 不會出現在結果中。
+     */
+    public Map<String, Long> getRemaining(String eventId, List<String> skus) {
+        checkId(eventId);
+        List<String> targets = new ArrayList<>();
+        if (skus == null || skus.isEmpty()) {
+            Set<String> registered = redisTemplate.opsForSet().members(skusKey(eventId));
+            if (registered != null) {
+                targets.addAll(registered);
+            }
+        } else {
+            skus.forEach(InventoryService::checkId);
+            targets.addAll(skus);
+        }
+
+        List<Object> values = redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            targets.forEach(sku -> connection.stringCommands().get(bytes(stockKey(eventId, sku))));
+            return null;
+        });
+
+        Map<String, Long> remaining = new LinkedHashMap<>();
+        for (int i = 0; i < targets.size(); i++) {
+            Object value = values.get(i);
+            if (value != null) {
+                remaining.put(targets.get(i), Math.max(0L, Long.parseLong(value.toString())));
+            }
+        }
+        return remaining;
+    }
+
+    public String stockKey(String eventId, String sku) {
+        return "inventory:{" + eventId + ":" + sku + "}:stock";
+    }
+
+    private String skusKey(String eventId) {
+        return "inventory:event:{" + eventId + "}:skus";
+    }
+
+    /**
+     * 活動與 SKU 的 ID 會放進 hash tag，不可含有大括號。
+     */
+    private static void checkId(String id) {
+        if (id == null || id.isEmpty() || id.indexOf('{') >= 0 || id.indexOf('}') >= 0) {
+            throw new IllegalArgumentException("無效的活動或 SKU ID: " + id);
+        }
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,77 @@
+package com.example.rediscontributedlock.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RPermitExpirableSemaphore;
+import org.redisson.api.RedissonClient;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 以 Redisson RPermitExpirableSemaphore 表示庫存：每件庫存是一個 permit。
+ * 取得 permit 即保留一件（帶租期），確認時把這個 permit 從總數中扣掉完成交易，釋放時歸還。
+ * 取得 permit 不經過任何全域鎖，多個用戶可以並行保留；持有者當機時 permit 在租期到後自動歸還。
+ * <p>
+ * Redisson 沒有「消耗」permit 的單一操作，確認時先 addPermits(-1) 再釋放 permit：
+ * 兩步之間可用數量只會偏少、不會偏多，因此不會超賣；permit 已逾時被回收時釋放失敗，再把扣掉的一件加回。
+ */
+@Slf4j
+@Service
+public class PermitInventoryService {
+
+    @Autowired
+    private RedissonClient redissonClient;
+
+    @Value("${tickets.permit.lease-millis:300000}")
+    private long leaseMillis;
+
+    /**
+     * 設定總庫存，已保留的 permit 也計入總數。
+     */
+    public void setStock(String name, int quantity) {
+        semaphore(name).setPermits(quantity);
+    }
+
+    /**
+     * 保留一件，不等待；回傳 permitId，已無庫存時回傳 null。
+     */
+    public String reserve(String name) {
+        try {
+            return semaphore(name).tryAcquire(0, leaseMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    /**
+     * 確認保留成交，回傳 false 代表 permit 已逾時或不存在。
+     */
+    public boolean confirm(String name, String permitId) {
+        RPermitExpirableSemaphore semaphore = semaphore(name);
+        semaphore.addPermits(-1);
+        if (semaphore.tryRelease(permitId)) {
+            return true;
+        }
+        semaphore.addPermits(1);
+        log.info("permit {}已逾時，無法確認", permitId);
+        return false;
+    }
+
+    /**
+     * 取消保留，歸還庫存。
+     */
+    public boolean release(String name, String permitId) {
+        return semaphore(name).tryRelease(permitId);
+    }
+
+    public int availablePermits(String name) {
+        return semaphore(name).availablePermits();
+    }
+
+    private RPermitExpirableSemaphore semaphore(String name) {
+        return redissonClient.getPermitExpirableSemaphore(name);
+    }
+}
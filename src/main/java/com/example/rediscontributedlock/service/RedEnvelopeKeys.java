@@ -0,0 +1,17 @@
+package com.example.rediscontributedlock.service;
+
+/**
+ * 預先產生金額的紅包所用的鍵，阻塞式、reactive 端點與壓測共用。
+ * 領取腳本同時讀寫紅包清單與領取紀錄，兩個鍵帶有相同的 hash tag，確保在 Redis Cluster 上位於同一個 slot。
+ */
+public final class RedEnvelopeKeys {
+
+    //紅包清單，每個元素是一個紅包的金額
+    public static final String LIST_KEY = "redEnvelope:{list}";
+
+    //領取紀錄：用戶 ID -> 領到的金額
+    public static final String CLAIMED_KEY = "redEnvelope:{list}:claimed";
+
+    private RedEnvelopeKeys() {
+    }
+}
@@ -0,0 +1,39 @@
+package com.example.rediscontributedlock.service;
+
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+
+import java.util.List;
+
+/**
+ * 多處共用的 Lua 腳本：阻塞式與 reactive 的 controller、InventoryService 以及基準測試都執行同一份，
+ * 放在 service 層，不必為了取得腳本而依賴 web 層的 controller。
+ */
+public final class RedisScripts {
+
+    /**
+     * 檢查庫存並扣減，整段在 Redis 端原子執行。KEYS[1] 庫存鍵。
+     * 回傳值：>= 0 為扣減後的剩餘數量；-1 為已售完；-2 為 Redis 無庫存的緩存。
+     */
+    public static final DefaultRedisScript<Long> DECREMENT_STOCK_SCRIPT = new DefaultRedisScript<>(
+        "local stock = tonumber(redis.call('get', KEYS[1])) " +
+            "if stock == nil then return -2 end " +
+            "if stock <= 0 then return -1 end " +
+            "return redis.call('decr', KEYS[1])", Long.class);
+
+    /**
+     * 領取紅包，整段在 Redis 端原子執行：檢查是否領過、彈出一個紅包、記錄領取人。
+     * KEYS[1] 紅包清單 KEYS[2] 領取紀錄（見 RedEnvelopeKeys）；ARGV[1] 用戶 ID。
+     * 回傳值：{1, 金額} 領取成功；{0} 沒有紅包；{-1, 金額} 已經領過。
+     */
+    @SuppressWarnings("rawtypes")
+    public static final DefaultRedisScript<List> CLAIM_RED_ENVELOPE_SCRIPT = new DefaultRedisScript<>(
+        "local claimed = redis.call('hget', KEYS[2], ARGV[1]) " +
+            "if claimed then return {-1, claimed} end " +
+            "local amount = redis.call('rpop', KEYS[1]) " +
+            "if not amount then return {0} end " +
+            "redis.call('hset', KEYS[2], ARGV[1], amount) " +
+            "return {1, amount}", List.class);
+
+    private RedisScripts() {
+    }
+}
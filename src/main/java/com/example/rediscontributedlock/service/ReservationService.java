@@ -0,0 +1,309 @@
+package com.example.rediscontributedlock.service;
+
+import com.example.rediscontributedlock.lock.LockKeys;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 限時保留：搶到時先保留（hold）而不是直接成交，在 TTL 內確認（confirm）才成交，逾時由背景的回收器歸還庫存或座位。
+ * 保留以 sorted set 記錄，score 為到期時間（毫秒），另以 hash 記錄每筆保留的內容；
+ * 每個操作都是一段 Lua 腳本、一次往返，不需要任何鎖，保留與確認為 O(log n)，回收每批為 O(log n + m)。
+ * 到期時間以 Redis 的 TIME 計算，不受各節點時鐘誤差影響。
+ * <ul>
+ * <li>票券／SKU：庫存鍵為 tickets:quantity 或 InventoryService 的 SKU 鍵，保留時扣一件，逾時或取消時加回。
+ * 保留相關的鍵帶有和庫存鍵相同的 hash tag。</li>
+ * <li>課程座位：保留時座位狀態改為 held:&lt;studentId&gt;，其他選課方式都把它視為已佔用；
+ * 確認時和 enrollCourseV2 一樣標記座位、記錄學生並放入 write-behind 佇列。每個學生在一門課程同時只能保留一個座位，
+ * 有未逾時保留的學生不能再經由 enrollCourseV2 選課；保留期間已從其他途徑選到這門課時，確認會被拒絕並釋放保留的座位。
+ * 座位保留的鍵和 course:data:&lt;courseId&gt; 同一個 slot，但腳本同時存取 course:enrolled:&lt;courseId&gt; 與全域的 write-behind stream，
+ * 和 enrollCourseV2 一樣只能用在單機或主從的 Redis，不適用 Redis Cluster。</li>
+ * </ul>
+ */
+@Slf4j
+@Service
+public class ReservationService {
+
+    private static final String RESOURCES_KEY = "reservation:resources";
+
+    private static final String STOCK_RESOURCE = "stock:";
+
+    private static final String COURSE_RESOURCE = "course:";
+
+    private static final String NOW_MILLIS =
+        "local t = redis.call('time') " +
+            "local now = tonumber(t[1]) * 1000 + math.floor(tonumber(t[2]) / 1000) ";
+
+    /**
+     * KEYS：庫存、保留 zset、保留內容 hash。ARGV：holdId、TTL（毫秒）、持有人。
+     * 回傳值：>= 0 保留成功，為保留後的剩餘數量；-1 已售完；-2 無庫存資料。
+     */
+    private static final DefaultRedisScript<Long> HOLD_STOCK_SCRIPT = new DefaultRedisScript<>(
+        "local stock = tonumber(redis.call('get', KEYS[1])) " +
+            "if stock == nil then return -2 end " +
+            "if stock <= 0 then return -1 end " +
+            NOW_MILLIS +
+            "redis.call('decr', KEYS[1]) " +
+            "redis.call('zadd', KEYS[2], now + tonumber(ARGV[2]), ARGV[1]) " +
+            "redis.call('hset', KEYS[3], ARGV[1], ARGV[3]) " +
+            "return stock - 1", Long.class);
+
+    /**
+     * KEYS 另加這筆保留的成交紀錄（帶 TTL 的字串鍵）。ARGV：holdId、成交紀錄保存毫秒數。
+     * 回傳值：1 成交（保存期間內重複確認同一筆也回傳 1）；0 查無此保留；-1 已逾時，庫存歸還。
+     */
+    private static final DefaultRedisScript<Long> CONFIRM_STOCK_SCRIPT = new DefaultRedisScript<>(
+        "if redis.call('exists', KEYS[4]) == 1 then return 1 end " +
+            "local expireAt = redis.call('zscore', KEYS[2], ARGV[1]) " +
+            "if not expireAt then return 0 end " +
+            NOW_MILLIS +
+            "local owner = redis.call('hget', KEYS[3], ARGV[1]) " +
+            "redis.call('zrem', KEYS[2], ARGV[1]) " +
+            "redis.call('hdel', KEYS[3], ARGV[1]) " +
+            "if tonumber(expireAt) < now then " +
+            "  redis.call('incr', KEYS[1]) " +
+            "  return -1 " +
+            "end " +
+            "redis.call('set', KEYS[4], owner or '', 'PX', ARGV[2]) " +
+            "return 1", Long.class);
+
+    /**
+     * ARGV：holdId。回傳值：1 已取消並歸還庫存；0 查無此保留。
+     */
+    private static final DefaultRedisScript<Long> CANCEL_STOCK_SCRIPT = new DefaultRedisScript<>(
+        "if redis.call('zrem', KEYS[2], ARGV[1]) == 0 then return 0 end " +
+            "redis.call('hdel', KEYS[3], ARGV[1]) " +
+            "redis.call('incr', KEYS[1]) " +
+            "return 1", Long.class);
+
+    /**
+     * ARGV：每批上限。回傳值：本批歸還的數量。
+     */
+    private static final DefaultRedisScript<Long> REAP_STOCK_SCRIPT = new DefaultRedisScript<>(
+        NOW_MILLIS +
+            "local ids = redis.call('zrangebyscore', KEYS[2], '-inf', now, 'LIMIT', 0, tonumber(ARGV[1])) " +
+            "if #ids == 0 then return 0 end " +
+            "redis.call('zrem', KEYS[2], unpack(ids)) " +
+            "redis.call('hdel', KEYS[3], unpack(ids)) " +
+            "redis.call('incrby', KEYS[1], #ids) " +
+            "return #ids", Long.class);
+
+    /**
+     * KEYS：座位 hash、已選學生 set、保留 zset、保留內容 hash（學生 -> 座位）、write-behind stream。ARGV：座位、學生、TTL（毫秒）。
+     * 回傳值：1 保留成功；0 座位已被佔用或保留；-1 學生已選過或已有保留。
+     */
+    private static final DefaultRedisScript<Long> HOLD_SEAT_SCRIPT = new DefaultRedisScript<>(
+        "if redis.call('hget', KEYS[1], ARGV[1]) ~= 'available' then return 0 end " +
+            "if redis.call('sismember', KEYS[2], ARGV[2]) == 1 or redis.call('zscore', KEYS[3], ARGV[2]) then return -1 end " +
+            NOW_MILLIS +
+            "redis.call('hset', KEYS[1], ARGV[1], 'held:' .. ARGV[2]) " +
+            "redis.call('zadd', KEYS[3], now + tonumber(ARGV[3]), ARGV[2]) " +
+            "redis.call('hset', KEYS[4], ARGV[2], ARGV[1]) " +
+            "return 1", Long.class);
+
+    /**
+     * ARGV：學生、課程、選課時間。回傳值：1 選課成功；0 查無此保留；-1 已逾時，座位歸還；-2 學生已選過這門課，座位歸還。
+     */
+    private static final DefaultRedisScript<Long> CONFIRM_SEAT_SCRIPT = new DefaultRedisScript<>(
+        "local expireAt = redis.call('zscore', KEYS[3], ARGV[1]) " +
+            "if not expireAt then return 0 end " +
+            NOW_MILLIS +
+            "local seat = redis.call('hget', KEYS[4], ARGV[1]) " +
+            "redis.call('zrem', KEYS[3], ARGV[1]) " +
+            "redis.call('hdel', KEYS[4], ARGV[1]) " +
+            "local held = redis.call('hget', KEYS[1], seat) == 'held:' .. ARGV[1] " +
+            "if tonumber(expireAt) < now then " +
+            "  if held then redis.call('hset', KEYS[1], seat, 'available') end " +
+            "  return -1 " +
+            "end " +
+            "if not held then return 0 end " +
+            "if redis.call('sismember', KEYS[2], ARGV[1]) == 1 then " +
+            "  redis.call('hset', KEYS[1], seat, 'available') " +
+            "  return -2 " +
+            "end " +
+            "redis.call('hset', KEYS[1], seat, ARGV[1]) " +
+            "redis.call('sadd', KEYS[2], ARGV[1]) " +
+            "redis.call('xadd', KEYS[5], '*', 'studentId', ARGV[1], 'courseId', ARGV[2], 'seat', seat, 'enrollmentTime', ARGV[3]) " +
+            "return 1", Long.class);
+
+    /**
+     * ARGV：學生。回傳值：1 已取消並歸還座位；0 查無此保留。
+     */
+    private static final DefaultRedisScript<Long> CANCEL_SEAT_SCRIPT = new DefaultRedisScript<>(
+        "if redis.call('zrem', KEYS[3], ARGV[1]) == 0 then return 0 end " +
+            "local seat = redis.call('hget', KEYS[4], ARGV[1]) " +
+            "redis.call('hdel', KEYS[4], ARGV[1]) " +
+            "if seat and redis.call('hget', KEYS[1], seat) == 'held:' .. ARGV[1] then redis.call('hset', KEYS[1], seat, 'available') end " +
+            "return 1", Long.class);
+
+    /**
+     * ARGV：每批上限。回傳值：本批歸還的座位數。
+     */
+    private static final DefaultRedisScript<Long> REAP_SEAT_SCRIPT = new DefaultRedisScript<>(
+        NOW_MILLIS +
+            "local ids = redis.call('zrangebyscore', KEYS[3], '-inf', now, 'LIMIT', 0, tonumber(ARGV[1])) " +
+            "if #ids == 0 then return 0 end " +
+            "for _, id in ipairs(ids) do " +
+            "  local seat = redis.call('hget', KEYS[4], id) " +
+            "  if seat and redis.call('hget', KEYS[1], seat) == 'held:' .. id then redis.call('hset', KEYS[1], seat, 'available') end " +
+            "end " +
+            "redis.call('zrem', KEYS[3], unpack(ids)) " +
+            "redis.call('hdel', KEYS[4], unpack(ids)) " +
+            "return #ids", Long.class);
+
+    @Autowired
+    private StringRedisTemplate redisTemplate;
+
+    @Autowired
+    private SoldOutFlagService soldOutFlagService;
+
+    @Value("${reservation.hold-ttl-millis:300000}")
+    private long holdTtlMillis;
+
+    //成交紀錄只用來讓重複確認回傳相同結果，保存這段時間後自動過期，不會隨成交筆數無限增加
+    @Value("${reservation.confirmed-ttl-millis:86400000}")
+    private long confirmedTtlMillis;
+
+    @Value("${reservation.reaper.batch-size:500}")
+    private int reapBatchSize;
+
+    //已登記到 reservation:resources 的資源，避免每次保留都多一次 SADD
+    private final Set<String> registeredResources = ConcurrentHashMap.newKeySet();
+
+    /**
+     * 從 stockKey 保留一件。回傳值同 HOLD_STOCK_SCRIPT。
+     */
+    public long holdStock(String stockKey, String holdId, String owner) {
+        register(STOCK_RESOURCE + stockKey);
+        long generation = soldOutFlagService.generation(stockKey);
+        if (soldOutFlagService.isSoldOut(stockKey)) {
+            return -1L;
+        }
+        Long remaining = redisTemplate.execute(HOLD_STOCK_SCRIPT, stockKeys(stockKey), holdId, String.valueOf(holdTtlMillis), owner);
+        if (remaining == null) {
+            return -2L;
+        }
+        if (remaining == -1L) {
+            soldOutFlagService.markSoldOut(stockKey, generation);
+        }
+        return remaining;
+    }
+
+    public long confirmStock(String stockKey, String holdId) {
+        List<String> keys = new ArrayList<>(stockKeys(stockKey));
+        keys.add(stockHoldPrefix(stockKey) + ":sold:" + holdId);
+        Long status = redisTemplate.execute(CONFIRM_STOCK_SCRIPT, keys, holdId, String.valueOf(confirmedTtlMillis));
+        if (status != null && status == -1L) {
+            soldOutFlagService.reset(stockKey);
+        }
+        return status == null ? 0L : status;
+    }
+
+    public boolean cancelStock(String stockKey, String holdId) {
+        Long status = redisTemplate.execute(CANCEL_STOCK_SCRIPT, stockKeys(stockKey), holdId);
+        if (status != null && status == 1L) {
+            soldOutFlagService.reset(stockKey);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 保留課程座位。回傳值同 HOLD_SEAT_SCRIPT。
+     */
+    public long holdSeat(Long courseId, Long studentId, String seat) {
+        register(COURSE_RESOURCE + courseId);
+        Long status = redisTemplate.execute(HOLD_SEAT_SCRIPT, seatKeys(courseId), seat, studentId.toString(), String.valueOf(holdTtlMillis));
+        return status == null ? 0L : status;
+    }
+
+    public long confirmSeat(Long courseId, Long studentId) {
+        Long status = redisTemplate.execute(CONFIRM_SEAT_SCRIPT, seatKeys(courseId),
+            studentId.toString(), courseId.toString(), LocalDateTime.now().toString());
+        return status == null ? 0L : status;
+    }
+
+    public boolean cancelSeat(Long courseId, Long studentId) {
+        Long status = redisTemplate.execute(CANCEL_SEAT_SCRIPT, seatKeys(courseId), studentId.toString());
+        return status != null && status == 1L;
+    }
+
+    /**
+     * 逐一處理有保留的資源，每批最多 reapBatchSize 筆，直到沒有逾時的保留。
+     * 多個節點同時回收也不會重複歸還，每筆保留只會被其中一段腳本移除。
+     */
+    @Scheduled(fixedDelayString = "${reservation.reaper.poll-millis:1000}")
+    public void reapExpiredHolds() {
+        Set<String> resources = redisTemplate.opsForSet().members(RESOURCES_KEY);
+        if (resources == null) {
+            return;
+        }
+        for (String resource : resources) {
+            long reaped = 0;
+            long batch;
+            do {
+                batch = reap(resource);
+                reaped += batch;
+            } while (batch >= reapBatchSize);
+            if (reaped > 0) {
+                log.info("{}回收逾時保留{}筆", resource, reaped);
+            }
+        }
+    }
+
+    private long reap(String resource) {
+        Long reaped;
+        if (resource.startsWith(STOCK_RESOURCE)) {
+            String stockKey = resource.substring(STOCK_RESOURCE.length());
+            reaped = redisTemplate.execute(REAP_STOCK_SCRIPT, stockKeys(stockKey), String.valueOf(reapBatchSize));
+            if (reaped != null && reaped > 0) {
+                soldOutFlagService.reset(stockKey);
+            }
+        } else {
+            Long courseId = Long.valueOf(resource.substring(COURSE_RESOURCE.length()));
+            reaped = redisTemplate.execute(REAP_SEAT_SCRIPT, seatKeys(courseId), String.valueOf(reapBatchSize));
+        }
+        return reaped == null ? 0L : reaped;
+    }
+
+    private void register(String resource) {
+        if (registeredResources.add(resource)) {
+            redisTemplate.opsForSet().add(RESOURCES_KEY, resource);
+        }
+    }
+
+    private List<String> stockKeys(String stockKey) {
+        String prefix = stockHoldPrefix(stockKey);
+        return List.of(stockKey, prefix + ":holds", prefix + ":holders");
+    }
+
+    private static String stockHoldPrefix(String stockKey) {
+        return "reservation:{" + LockKeys.hashTag(stockKey) + "}";
+    }
+
+    /**
+     * 課程座位保留的 zset（學生 -> 到期時間），enrollCourseV2 以它拒絕有未逾時保留的學生。
+     */
+    public static String seatHoldsKey(Long courseId) {
+        return seatHoldPrefix(courseId) + ":holds";
+    }
+
+    private static String seatHoldPrefix(Long courseId) {
+        return "reservation:{course:data:" + courseId + "}";
+    }
+
+    private List<String> seatKeys(Long courseId) {
+        return List.of("course:data:" + courseId, "course:enrolled:" + courseId,
+            seatHoldsKey(courseId), seatHoldPrefix(courseId) + ":holders", CourseService.ENROLLMENT_STREAM_KEY);
+    }
+}
@@ -0,0 +1,122 @@
+package com.example.rediscontributedlock.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 以 Redis bitmap 表示的課程座位表：每個座位一個 bit，1 代表已被佔用，一萬個座位只需約 1.25 KB。
+ * 佔用者另外存在 hash 中（座位編號 -> 學生 ID），學生的座位存在另一個 hash（學生 ID -> 座位編號），每個學生最多佔一個座位。
+ * 座位編號從 1 開始，對應 bitmap 的第 0 個 bit，與 course:data 中的 seat:<n> 命名一致。
+ * 四個鍵帶有相同的 hash tag，確保在 Redis Cluster 上位於同一個 slot。
+ * <p>
+ * 由 SeatMapController 提供選位端點。座位狀態只存在這組鍵中，不會同步 course:data、course:enrolled，
+ * 也不寫入 MySQL；和 enrollCourseV1/V2/V3 同時使用同一門課時，兩邊的座位會各自分配，同一門課只使用其中一種。
+ */
+@Service
+public class SeatMapService {
+
+    /**
+     * 佔用指定座位。回傳值：1 成功；0 座位已被佔用；-1 座位編號超出範圍；-2 座位表不存在；-3 學生已佔有其他座位。
+     */
+    private static final DefaultRedisScript<Long> CLAIM_SEAT_SCRIPT = new DefaultRedisScript<>(
+        "local size = tonumber(redis.call('get', KEYS[3])) " +
+            "if not size then return -2 end " +
+            "local pos = tonumber(ARGV[1]) " +
+            "if pos < 0 or pos >= size then return -1 end " +
+            "if redis.call('hexists', KEYS[4], ARGV[2]) == 1 then return -3 end " +
+            "if redis.call('setbit', KEYS[1], pos, 1) == 1 then return 0 end " +
+            "redis.call('hset', KEYS[2], pos + 1, ARGV[2]) " +
+            "redis.call('hset', KEYS[4], ARGV[2], pos + 1) " +
+            "return 1", Long.class);
+
+    /**
+     * 以 BITPOS 找出第一個空位並佔用。回傳值：>= 1 為佔到的座位編號（學生已有座位時為原本的座位）；-1 已無空位；-2 座位表不存在。
+     */
+    private static final DefaultRedisScript<Long> CLAIM_ANY_SEAT_SCRIPT = new DefaultRedisScript<>(
+        "local size = tonumber(redis.call('get', KEYS[3])) " +
+            "if not size then return -2 end " +
+            "local held = redis.call('hget', KEYS[4], ARGV[1]) " +
+            "if held then return tonumber(held) end " +
+            "local pos = redis.call('bitpos', KEYS[1], 0) " +
+            "if pos < 0 or pos >= size then return -1 end " +
+            "redis.call('setbit', KEYS[1], pos, 1) " +
+            "redis.call('hset', KEYS[2], pos + 1, ARGV[1]) " +
+            "redis.call('hset', KEYS[4], ARGV[1], pos + 1) " +
+            "return pos + 1", Long.class);
+
+    @Autowired
+    private StringRedisTemplate redisTemplate;
+
+    public void initSeatMap(Long courseId, int seats) {
+        redisTemplate.delete(List.of(bitmapKey(courseId), occupantsKey(courseId), studentsKey(courseId)));
+        redisTemplate.opsForValue().set(sizeKey(courseId), String.valueOf(seats));
+    }
+
+    public boolean claimSeat(Long courseId, int seatNo, Long studentId) {
+        Long status = redisTemplate.execute(CLAIM_SEAT_SCRIPT, keys(courseId), String.valueOf(seatNo - 1), studentId.toString());
+        return status != null && status == 1L;
+    }
+
+    /**
+     * 不指定座位的學生：一次呼叫佔到第一個空位，回傳座位編號，已無空位時回傳 -1；
+     * 已經佔有座位的學生回傳原本的座位，重試不會多佔一個。
+     */
+    public int claimAnySeat(Long courseId, Long studentId) {
+        Long seatNo = redisTemplate.execute(CLAIM_ANY_SEAT_SCRIPT, keys(courseId), studentId.toString());
+        return seatNo == null || seatNo < 1 ? -1 : seatNo.intValue();
+    }
+
+    public String getOccupant(Long courseId, int seatNo) {
+        return (String) redisTemplate.opsForHash().get(occupantsKey(courseId), String.valueOf(seatNo));
+    }
+
+    /**
+     * 一次讀出整個 bitmap，回傳所有空位的座位編號。
+     */
+    public List<Integer> getAvailableSeats(Long courseId) {
+        String size = redisTemplate.opsForValue().get(sizeKey(courseId));
+        if (size == null) {
+            return List.of();
+        }
+        int seats = Integer.parseInt(size);
+        byte[] bitmap = redisTemplate.execute((RedisCallback<byte[]>) connection ->
+            connection.stringCommands().get(bitmapKey(courseId).getBytes(StandardCharsets.UTF_8)));
+
+        List<Integer> available = new ArrayList<>();
+        for (int pos = 0; pos < seats; pos++) {
+            // Redis bitmap 的第 0 個 bit 是第一個 byte 的最高位
+            boolean occupied = bitmap != null && pos / 8 < bitmap.length && (bitmap[pos / 8] & (0x80 >>> (pos % 8))) != 0;
+            if (!occupied) {
+                available.add(pos + 1);
+            }
+        }
+        return available;
+    }
+
+    private List<String> keys(Long courseId) {
+        return List.of(bitmapKey(courseId), occupantsKey(courseId), sizeKey(courseId), studentsKey(courseId));
+    }
+
+    private String bitmapKey(Long courseId) {
+        return "course:seatmap:{" + courseId + "}";
+    }
+
+    private String occupantsKey(Long courseId) {
+        return "course:seatmap:{" + courseId + "}:occupants";
+    }
+
+    private String sizeKey(Long courseId) {
+        return "course:seatmap:{" + courseId + "}:size";
+    }
+
+    private String studentsKey(Long courseId) {
+        return "course:seatmap:{" + courseId + "}:students";
+    }
+}
@@ -0,0 +1,105 @@
+package com.example.rediscontributedlock.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RTopic;
+import org.redisson.api.RedissonClient;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * 每個庫存鍵在 JVM 內的售完旗標。
+ * 某個節點發現庫存為 0 時設定旗標，並透過 Redis pub/sub 廣播給所有節點；
+ * 之後的搶購請求在本地就直接拒絕，不再取鎖也不再讀 Redis。補貨時清除旗標並同樣廣播。
+ * <p>
+ * 售完與補貨是兩個 topic，彼此沒有順序保證，補貨前讀到 0 的請求可能在補貨之後才設定旗標。
+ * 因此每次補貨都在 Redis 遞增該鍵的補貨世代，售完旗標記錄讀取庫存前的世代（generation），
+ * 只有不小於目前已知世代的旗標才有效；兩種訊息都只會讓世代往前，不論到達順序，各節點最後的狀態都相同。
+ */
+@Slf4j
+@Service
+public class SoldOutFlagService {
+
+    private static final String SOLD_OUT_TOPIC = "inventory:soldOut";
+
+    private static final String RESTOCK_TOPIC = "inventory:restock";
+
+    private static final String GENERATION_KEY_PREFIX = "inventory:restockGeneration:";
+
+    @Autowired
+    private RedissonClient redissonClient;
+
+    //已知的最新補貨世代
+    private final ConcurrentMap<String, Long> generations = new ConcurrentHashMap<>();
+
+    //售完旗標設定時的補貨世代
+    private final ConcurrentMap<String, Long> soldOutGenerations = new ConcurrentHashMap<>();
+
+    private RTopic soldOutTopic;
+
+    private RTopic restockTopic;
+
+    @PostConstruct
+    public void subscribe() {
+        soldOutTopic = redissonClient.getTopic(SOLD_OUT_TOPIC);
+        restockTopic = redissonClient.getTopic(RESTOCK_TOPIC);
+        soldOutTopic.addListener(String.class, (channel, message) -> onMessage(soldOutGenerations, message));
+        restockTopic.addListener(String.class, (channel, message) -> onMessage(generations, message));
+    }
+
+    public boolean isSoldOut(String inventoryKey) {
+        Long soldOutGeneration = soldOutGenerations.get(inventoryKey);
+        return soldOutGeneration != null && soldOutGeneration >= generation(inventoryKey);
+    }
+
+    /**
+     * 目前已知的補貨世代，在讀取庫存之前取得，售完時連同 markSoldOut 一起傳入。
+     */
+    public long generation(String inventoryKey) {
+        return generations.getOrDefault(inventoryKey, 0L);
+    }
+
+    /**
+     * 設定本地旗標並通知其他節點，已設定過的鍵不重複廣播；generation 比目前已知的舊，代表讀到的是補貨前的庫存，直接忽略。
+     * 廣播以非同步送出，reactive 端點在 event loop 上呼叫也不會阻塞。
+     */
+    public void markSoldOut(String inventoryKey, long generation) {
+        if (generation < generation(inventoryKey)) {
+            return;
+        }
+        if (advance(soldOutGenerations, inventoryKey, generation)) {
+            log.info("庫存{}已售完，廣播售完旗標", inventoryKey);
+            soldOutTopic.publishAsync(generation + ":" + inventoryKey);
+        }
+    }
+
+    public void reset(String inventoryKey) {
+        long generation = redissonClient.getAtomicLong(GENERATION_KEY_PREFIX + inventoryKey).incrementAndGet();
+        advance(generations, inventoryKey, generation);
+        restockTopic.publish(generation + ":" + inventoryKey);
+    }
+
+    //訊息格式為 <世代>:<庫存鍵>，庫存鍵本身可能含有冒號，只切第一個
+    private void onMessage(ConcurrentMap<String, Long> target, String message) {
+        int separator = message.indexOf(':');
+        advance(target, message.substring(separator + 1), Long.parseLong(message.substring(0, separator)));
+    }
+
+    /**
+     * 只在 value 比目前的值大時更新，回傳是否有更新。
+     */
+    private static boolean advance(ConcurrentMap<String, Long> target, String inventoryKey, long value) {
+        while (true) {
+            Long previous = target.get(inventoryKey);
+            if (previous != null && previous >= value) {
+                return false;
+            }
+            if (previous == null ? target.putIfAbsent(inventoryKey, value) == null : target.replace(inventoryKey, previous, value)) {
+                return true;
+            }
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package com.example.rediscontributedlock.service;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+/**
+ * Redis Stream 消費者名稱：未設定時以 前綴-主機名稱-pid 產生，每個節點各有一份 pending 清單，
+ * 不會因為共用同一個消費者名稱而讀到、ACK 別的節點正在處理的訊息。
+ * 節點重啟後名稱會改變，舊名稱下未 ACK 的訊息由各消費者以 XCLAIM 接手。
+ */
+final class StreamConsumerNames {
+
+    private StreamConsumerNames() {
+    }
+
+    static String resolve(String configured, String prefix) {
+        if (configured != null && !configured.isBlank()) {
+            return configured;
+        }
+        String host;
+        try {
+            host = InetAddress.getLocalHost().getHostName();
+        } catch (UnknownHostException e) {
+            host = "unknown-host";
+        }
+        return prefix + "-" + host + "-" + ProcessHandle.current().pid();
+    }
+}
@@ -7,6 +7,8 @@ import com.example.rediscontributedlock.repository.CourseRepository;
 import com.example.rediscontributedlock.repository.EnrollmentRecordRepository;
 import com.example.rediscontributedlock.repository.StudentRepository;
 import com.example.rediscontributedlock.service.CourseService;
+import com.example.rediscontributedlock.service.ReservationService;
+import com.example.rediscontributedlock.service.SeatMapService;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 import org.redisson.api.RedissonClient;
@@ -18,6 +20,7 @@ import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.core.ValueOperations;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.util.ArrayList;
@@ -45,6 +48,12 @@ public class CourseServiceTest {
     @Autowired
     private CourseService courseService;
 
+    @Autowired
+    private SeatMapService seatMapService;
+
+    @Autowired
+    private ReservationService reservationService;
+
     @Autowired
     private StudentRepository studentRepository;
     @Autowired
@@ -104,6 +113,78 @@ public class CourseServiceTest {
         executor.shutdown();
     }
 
+    @Test
+    public void testConcurrentEnrollmentV2() throws InterruptedException {
+        List<Student> students = studentRepository.findAll();
+        List<Course> courses = courseRepository.findAll();
+
+        ExecutorService executor = Executors.newFixedThreadPool(50);
+        List<Future<Boolean>> results = new ArrayList<>();
+
+        for (Student student : students) {
+            Course randomCourse = courses.get(ThreadLocalRandom.current().nextInt(courses.size()));
+            String seat = "seat:" + ThreadLocalRandom.current().nextInt(1, 6);
+
+            results.add(executor.submit(() ->
+                courseService.enrollCourseV2(student.getStudentId(), randomCourse.getCourseId(), seat)
+            ));
+        }
+
+        long successfulEnrollments = results.stream()
+            .map(future -> {
+                try {
+                    return future.get();
+                } catch (Exception e) {
+                    e.printStackTrace();
+                    return false;
+                }
+            })
+            .filter(result -> result)
+            .count();
+
+        // 每個座位只能被一位學生選到
+        long totalSeats = courses.stream().mapToLong(Course::getAvailableSeats).sum();
+        Assertions.assertTrue(successfulEnrollments <= totalSeats, "選課成功人數不應超過座位數");
+
+        System.out.println("成功選到課程的學生人數: " + successfulEnrollments);
+        executor.shutdown();
+    }
+
+    /**
+     * V3 自己管理交易，唯一索引違反時整個交易回滾，因此不在測試的交易中執行，結束時自行清除資料。
+     */
+    @Test
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public void testEnrollmentV3() {
+        Course course = new Course();
+        course.setCourseName("v3-test");
+        course.setMaxSeats(2);
+        course.setAvailableSeats(2);
+        Long courseId = courseRepository.save(course).getCourseId();
+        String courseKey = "course:data:" + courseId;
+        for (int i = 1; i <= 3; i++) {
+            redisTemplate.opsForHash().put(courseKey, "seat:" + i, "available");
+        }
+
+        try {
+            Assertions.assertTrue(courseService.enrollCourseV3(1L, courseId, "seat:1"));
+            Assertions.assertFalse(courseService.enrollCourseV3(2L, courseId, "seat:1"), "已被佔用的座位不可再選");
+            Assertions.assertFalse(courseService.enrollCourseV3(1L, courseId, "seat:2"), "同一學生不可重複選課");
+            Assertions.assertEquals(1, courseRepository.findById(courseId).orElseThrow().getAvailableSeats(),
+                "重複選課被唯一索引擋下時座位數應回滾");
+            Assertions.assertTrue(courseService.enrollCourseV3(2L, courseId, "seat:2"));
+            Assertions.assertFalse(courseService.enrollCourseV3(3L, courseId, "seat:3"), "課程已無座位");
+
+            Assertions.assertEquals(0, courseRepository.findById(courseId).orElseThrow().getAvailableSeats());
+            Assertions.assertEquals(2, enrollmentRecordRepository.countByCourseId(courseId));
+        } finally {
+            enrollmentRecordRepository.deleteAll(enrollmentRecordRepository.findAll().stream()
+                .filter(record -> courseId.equals(record.getCourseId())).toList());
+            courseRepository.deleteById(courseId);
+            redisTemplate.delete(List.of(courseKey, "course:enrolled:" + courseId));
+        }
+    }
+
     @Test
     public void initializeRedisData() {
         enrollmentRecordRepository.deleteAll();
@@ -133,6 +214,51 @@ public class CourseServiceTest {
 
 
 
+    @Test
+    public void testSeatMapClaim() {
+        Long courseId = 999L;
+        seatMapService.initSeatMap(courseId, 3);
+
+        Assertions.assertTrue(seatMapService.claimSeat(courseId, 2, 1L));
+        Assertions.assertFalse(seatMapService.claimSeat(courseId, 2, 2L), "同一座位不應被佔用兩次");
+        Assertions.assertEquals(1, seatMapService.claimAnySeat(courseId, 3L));
+        Assertions.assertFalse(seatMapService.claimSeat(courseId, 3, 1L), "同一學生不應佔兩個座位");
+        Assertions.assertEquals(2, seatMapService.claimAnySeat(courseId, 1L), "已有座位的學生回傳原本的座位");
+        Assertions.assertEquals(3, seatMapService.claimAnySeat(courseId, 4L));
+        Assertions.assertEquals(-1, seatMapService.claimAnySeat(courseId, 5L), "座位已滿");
+        Assertions.assertEquals("1", seatMapService.getOccupant(courseId, 2));
+        Assertions.assertTrue(seatMapService.getAvailableSeats(courseId).isEmpty());
+    }
+
+    @Test
+    public void testSeatReservation() {
+        Long courseId = 998L;
+        String courseKey = "course:data:" + courseId;
+        redisTemplate.delete(List.of(courseKey, "course:enrolled:" + courseId, ReservationService.seatHoldsKey(courseId)));
+        redisTemplate.opsForHash().put(courseKey, "seat:1", "available");
+        redisTemplate.opsForHash().put(courseKey, "seat:2", "available");
+
+        Assertions.assertEquals(1L, reservationService.holdSeat(courseId, 1L, "seat:1"));
+        Assertions.assertEquals(0L, reservationService.holdSeat(courseId, 2L, "seat:1"), "保留中的座位不可再被保留");
+        Assertions.assertEquals(-1L, reservationService.holdSeat(courseId, 1L, "seat:2"), "同一學生同時只能保留一個座位");
+        Assertions.assertFalse(courseService.enrollCourseV2(2L, courseId, "seat:1"), "保留中的座位不可直接選課");
+        Assertions.assertFalse(courseService.enrollCourseV2(1L, courseId, "seat:2"), "有保留的學生不可再直接選其他座位");
+
+        Assertions.assertEquals(1L, reservationService.confirmSeat(courseId, 1L));
+        Assertions.assertEquals("1", redisTemplate.opsForHash().get(courseKey, "seat:1"));
+        Assertions.assertEquals(0L, reservationService.confirmSeat(courseId, 1L), "保留確認後即移除");
+
+        Assertions.assertEquals(1L, reservationService.holdSeat(courseId, 2L, "seat:2"));
+        Assertions.assertTrue(reservationService.cancelSeat(courseId, 2L));
+        Assertions.assertEquals("available", redisTemplate.opsForHash().get(courseKey, "seat:2"));
+
+        // 保留期間已從其他途徑選到這門課，確認被拒絕並釋放座位
+        Assertions.assertEquals(1L, reservationService.holdSeat(courseId, 3L, "seat:2"));
+        redisTemplate.opsForSet().add("course:enrolled:" + courseId, "3");
+        Assertions.assertEquals(-2L, reservationService.confirmSeat(courseId, 3L));
+        Assertions.assertEquals("available", redisTemplate.opsForHash().get(courseKey, "seat:2"));
+    }
+
     @Test
     public void testFindCourseValue() {
         // 定義要查找的鍵和字段
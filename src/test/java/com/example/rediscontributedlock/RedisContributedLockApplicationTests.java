@@ -1,6 +1,7 @@
 package com.example.rediscontributedlock;
 
 import org.assertj.core.util.Sets;
+import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.web.client.RestTemplate;
@@ -29,6 +30,18 @@ class RedisContributedLockApplicationTests {
 	private final String TICKETS_QUANTITY_URL = "http://localhost:8080/grabTickets/api/setTicketsQuantity";
 	private final String TICKET_URL = "http://localhost:8080/grabTickets/api/getTicket";
 
+	private final String TICKET_BY_LUA_URL = "http://localhost:8080/grabTickets/api/getTicketByLua";
+
+	private final String ENQUEUE_TICKET_URL = "http://localhost:8080/grabTickets/api/enqueueTicket?userId={userId}";
+
+	private final String AWAIT_QUEUE_RESULT_URL = "http://localhost:8080/grabTickets/api/awaitQueueResult?ticketId={ticketId}";
+
+	private final String INVENTORY_LOAD_STOCK_URL = "http://localhost:8080/inventory/api/loadStock?eventId={eventId}";
+
+	private final String INVENTORY_GRAB_URL = "http://localhost:8080/inventory/api/grab?eventId={eventId}&sku={sku}";
+
+	private final String INVENTORY_REMAINING_URL = "http://localhost:8080/inventory/api/remaining?eventId={eventId}";
+
 	private final String INSTALL_RED_ENVELOPES_URL = "http://localhost:8080/redEnvelope/api/installRedEnvelopes";
 
 	private final String GRAB_RED_ENVELOPES_URL = "http://localhost:8080/redEnvelope/api/grabRedEnvelope";
@@ -197,6 +210,75 @@ class RedisContributedLockApplicationTests {
 		executorService.shutdown();
 	}
 
+	@Test
+	public void testGrabTicketsByLua() throws InterruptedException {
+		int concurrentThreads = 7;
+		ExecutorService executorService = Executors.newFixedThreadPool(concurrentThreads * 2);
+
+		List<CompletableFuture<Void>> futures = new ArrayList<>();
+
+		for (int i = 0; i < concurrentThreads * 2; i++) {
+			futures.add(CompletableFuture.runAsync(() ->
+				restTemplate.getForObject(TICKET_BY_LUA_URL, String.class), executorService));
+		}
+
+		// Wait for all requests to complete
+		CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+
+		executorService.shutdown();
+	}
+
+	@Test
+	public void testGrabInventoryBySku() {
+		int concurrentThreads = 7;
+		String eventId = "concert-1";
+		restTemplate.postForObject(INVENTORY_LOAD_STOCK_URL, Map.of("A", 5L, "B", 5L), String.class, eventId);
+		ExecutorService executorService = Executors.newFixedThreadPool(concurrentThreads * 2);
+
+		List<CompletableFuture<Void>> futures = new ArrayList<>();
+
+		// 兩個 SKU 各有 7 個請求，每個 SKU 只有 5 件庫存
+		for (String sku : List.of("A", "B")) {
+			for (int i = 0; i < concurrentThreads; i++) {
+				futures.add(CompletableFuture.runAsync(() ->
+					restTemplate.getForObject(INVENTORY_GRAB_URL, String.class, eventId, sku), executorService));
+			}
+		}
+
+		CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+		executorService.shutdown();
+
+		System.out.println("剩餘庫存: " + restTemplate.getForObject(INVENTORY_REMAINING_URL, String.class, eventId));
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void testGrabTicketByQueue() {
+		int concurrentThreads = 15;
+		restTemplate.getForObject(TICKETS_QUANTITY_URL, String.class);
+		ExecutorService executorService = Executors.newFixedThreadPool(concurrentThreads);
+
+		// 排隊後立即拿到排隊號碼，再以長輪詢等待批次處理的結果；10 張票只有 10 人取得
+		List<CompletableFuture<Map<String, Object>>> futures = new ArrayList<>();
+		for (int i = 0; i < concurrentThreads; i++) {
+			String userId = "user-" + i;
+			futures.add(CompletableFuture.supplyAsync(() -> {
+				Map<String, Object> enqueued = restTemplate.getForObject(ENQUEUE_TICKET_URL, Map.class, userId);
+				if (!Boolean.TRUE.equals(enqueued.get("result"))) {
+					return enqueued;
+				}
+				return restTemplate.getForObject(AWAIT_QUEUE_RESULT_URL, Map.class, enqueued.get("data"));
+			}, executorService));
+		}
+
+		long winners = futures.stream().map(CompletableFuture::join)
+			.filter(result -> Boolean.TRUE.equals(result.get("result"))).count();
+		executorService.shutdown();
+
+		System.out.println("排隊取得票人數: " + winners);
+		Assertions.assertEquals(10, winners, "10 張票應剛好有 10 人取得");
+	}
+
 	@Test
 	public void installRedEnvelopes()  {
 		restTemplate.getForObject(INSTALL_RED_ENVELOPES_URL, String.class);
@@ -0,0 +1,134 @@
+package com.example.rediscontributedlock.benchmark;
+
+import com.example.rediscontributedlock.service.RedisScripts;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.redisson.api.RLock;
+import org.redisson.api.RPermitExpirableSemaphore;
+import org.redisson.api.RedissonClient;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 搶票與搶紅包的完整臨界區：getTicket / grabRedEnvelope 的「Redisson 鎖 + 多次往返」對照 Lua 單次往返，
+ * 搶票另外對照 getTicketBySemaphore 的 permit 模式（保留後立即確認）。
+ * 每輪量測前重新放入足夠的票與紅包，避免量到售完後的路徑。
+ */
+@State(Scope.Benchmark)
+public class CriticalSectionBenchmark {
+
+    private static final String LOCK_KEY = "benchmark:criticalSection:lock";
+
+    private static final String TICKET_KEY = "benchmark:tickets:quantity";
+
+    private static final String TICKET_PERMITS_KEY = "benchmark:tickets:permits";
+
+    private static final String RED_POCKET_KEY = "benchmark:redEnvelope:{list}";
+
+    private static final String RED_POCKET_CLAIMED_KEY = "benchmark:redEnvelope:{list}:claimed";
+
+    private static final int RED_ENVELOPES_PER_ITERATION = 2_000_000;
+
+    private RedissonClient redissonClient;
+
+    private LettuceConnectionFactory connectionFactory;
+
+    private StringRedisTemplate redisTemplate;
+
+    private final AtomicLong userIds = new AtomicLong();
+
+    @Setup
+    public void setUp() {
+        redissonClient = RedisBenchmarkSupport.redissonClient();
+        connectionFactory = RedisBenchmarkSupport.lettuceConnectionFactory();
+        redisTemplate = RedisBenchmarkSupport.stringRedisTemplate(connectionFactory);
+    }
+
+    @Setup(Level.Iteration)
+    public void restock() {
+        redisTemplate.opsForValue().set(TICKET_KEY, String.valueOf(Integer.MAX_VALUE));
+        redissonClient.getPermitExpirableSemaphore(TICKET_PERMITS_KEY).setPermits(Integer.MAX_VALUE);
+        redisTemplate.delete(List.of(RED_POCKET_KEY, RED_POCKET_CLAIMED_KEY));
+        String[] chunk = new String[10_000];
+        Arrays.fill(chunk, "1.00");
+        for (int i = 0; i < RED_ENVELOPES_PER_ITERATION; i += chunk.length) {
+            redisTemplate.opsForList().rightPushAll(RED_POCKET_KEY, chunk);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        redisTemplate.delete(List.of(TICKET_KEY, RED_POCKET_KEY, RED_POCKET_CLAIMED_KEY));
+        redissonClient.getPermitExpirableSemaphore(TICKET_PERMITS_KEY).delete();
+        redissonClient.shutdown();
+        connectionFactory.destroy();
+    }
+
+    @Benchmark
+    public String ticketWithLock() {
+        RLock lock = redissonClient.getLock(LOCK_KEY);
+        lock.lock();
+        try {
+            String valueStr = redisTemplate.opsForValue().get(TICKET_KEY);
+            int value = Integer.parseInt(valueStr);
+            if (value > 0) {
+                valueStr = String.valueOf(value - 1);
+                redisTemplate.opsForValue().set(TICKET_KEY, valueStr);
+            }
+            return valueStr;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Benchmark
+    public Long ticketWithLua() {
+        return redisTemplate.execute(RedisScripts.DECREMENT_STOCK_SCRIPT, List.of(TICKET_KEY));
+    }
+
+    /**
+     * 和 PermitInventoryService 相同的保留 + 確認：tryAcquire 取得 permit，addPermits(-1) 後 tryRelease。
+     */
+    @Benchmark
+    public boolean ticketWithSemaphore() throws InterruptedException {
+        RPermitExpirableSemaphore semaphore = redissonClient.getPermitExpirableSemaphore(TICKET_PERMITS_KEY);
+        String permitId = semaphore.tryAcquire(0, 300_000, TimeUnit.MILLISECONDS);
+        if (permitId == null) {
+            return false;
+        }
+        semaphore.addPermits(-1);
+        return semaphore.tryRelease(permitId);
+    }
+
+    @Benchmark
+    public String redEnvelopeWithLock() {
+        RLock lock = redissonClient.getLock(LOCK_KEY);
+        lock.lock();
+        try {
+            Long listSize = redisTemplate.opsForList().size(RED_POCKET_KEY);
+            if (listSize != null && listSize > 0) {
+                String stringValue = redisTemplate.opsForList().index(RED_POCKET_KEY, -1);
+                redisTemplate.opsForList().trim(RED_POCKET_KEY, 0, -2);
+                return stringValue;
+            }
+            return null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Benchmark
+    public List<?> redEnvelopeWithLua() {
+        return redisTemplate.execute(RedisScripts.CLAIM_RED_ENVELOPE_SCRIPT,
+            List.of(RED_POCKET_KEY, RED_POCKET_CLAIMED_KEY), String.valueOf(userIds.incrementAndGet()));
+    }
+}
@@ -0,0 +1,53 @@
+package com.example.rediscontributedlock.benchmark;
+
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.TimeValue;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 依序以 1、8、64、256 個執行緒執行所有鎖的基準測試，量測吞吐量與延遲百分位數（SampleTime）。
+ * 需先在本機啟動 redis-server，執行方式：
+ * <pre>
+ * mvn -Pbenchmark test-compile exec:exec
+ * </pre>
+ * 可用 -Djmh.threads=1,8 調整執行緒數、-Djmh.include=SetNx 只跑部分基準測試，結果輸出到 target/jmh-&lt;threads&gt;.json。
+ * 加上 -Dredis.proxy.latency-millis=2 -Dredis.proxy.jitter-millis=0.5 則經過 LatencyProxy，模擬跨可用區的往返時間。
+ */
+public class LockBenchmarkRunner {
+
+    public static void main(String[] args) throws RunnerException {
+        String include = System.getProperty("jmh.include", "com.example.rediscontributedlock.benchmark.*Benchmark");
+        int[] threadCounts = Arrays.stream(System.getProperty("jmh.threads", "1,8,64,256").split(","))
+            .map(String::trim)
+            .mapToInt(Integer::parseInt)
+            .toArray();
+
+        for (int threads : threadCounts) {
+            Options options = new OptionsBuilder()
+                .include(include)
+                .threads(threads)
+                .mode(Mode.Throughput)
+                .mode(Mode.SampleTime)
+                .timeUnit(TimeUnit.MICROSECONDS)
+                .forks(1)
+                .warmupIterations(2)
+                .warmupTime(TimeValue.seconds(5))
+                .measurementIterations(3)
+                .measurementTime(TimeValue.seconds(5))
+                .jvmArgsAppend("-Dredis.address=" + RedisBenchmarkSupport.REDIS_ADDRESS,
+                    "-Dredis.proxy.latency-millis=" + RedisBenchmarkSupport.PROXY_LATENCY_MILLIS,
+                    "-Dredis.proxy.jitter-millis=" + RedisBenchmarkSupport.PROXY_JITTER_MILLIS)
+                .resultFormat(ResultFormatType.JSON)
+                .result("target/jmh-" + threads + ".json")
+                .build();
+            new Runner(options).run();
+        }
+    }
+}
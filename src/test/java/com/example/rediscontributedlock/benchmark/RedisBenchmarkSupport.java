@@ -0,0 +1,80 @@
+package com.example.rediscontributedlock.benchmark;
+
+import com.example.rediscontributedlock.proxy.LatencyProxy;
+import org.redisson.Redisson;
+import org.redisson.api.RedissonClient;
+import org.redisson.config.Config;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+
+/**
+ * 基準測試用的 Redis 連線，不啟動 Spring context，直接連到本機的 redis-server。
+ * 位址可用 -Dredis.address=redis://host:port 指定，預設與 RedisConfig、RedissonConfig 相同。
+ * 設定 -Dredis.proxy.latency-millis 或 -Dredis.proxy.jitter-millis 時，在同一個 JVM 內啟動 LatencyProxy，所有連線都經過代理。
+ */
+public final class RedisBenchmarkSupport {
+
+    public static final String REDIS_ADDRESS = System.getProperty("redis.address", "redis://127.0.0.1:6379");
+
+    public static final String PROXY_LATENCY_MILLIS = System.getProperty("redis.proxy.latency-millis", "0");
+
+    public static final String PROXY_JITTER_MILLIS = System.getProperty("redis.proxy.jitter-millis", "0");
+
+    private static String connectAddress;
+
+    private RedisBenchmarkSupport() {
+    }
+
+    /**
+     * 實際連線的位址：沒有設定延遲時就是 REDIS_ADDRESS，否則是本 JVM 內代理的位址。
+     */
+    public static synchronized String connectAddress() {
+        if (connectAddress == null) {
+            if (LatencyProxy.millis(PROXY_LATENCY_MILLIS).isZero() && LatencyProxy.millis(PROXY_JITTER_MILLIS).isZero()) {
+                connectAddress = REDIS_ADDRESS;
+            } else {
+                URI upstream = URI.create(REDIS_ADDRESS);
+                LatencyProxy proxy = new LatencyProxy(0, upstream.getHost(), upstream.getPort());
+                proxy.setLatency(LatencyProxy.millis(PROXY_LATENCY_MILLIS));
+                proxy.setJitter(LatencyProxy.millis(PROXY_JITTER_MILLIS));
+                try {
+                    proxy.start();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                Runtime.getRuntime().addShutdownHook(new Thread(proxy::close));
+                connectAddress = proxy.getAddress();
+            }
+        }
+        return connectAddress;
+    }
+
+    public static RedissonClient redissonClient() {
+        Config config = new Config();
+        config.useSingleServer()
+            .setAddress(connectAddress())
+            .setConnectionPoolSize(64)
+            .setConnectionMinimumIdleSize(16)
+            .setTimeout(3000);
+        return Redisson.create(config);
+    }
+
+    public static LettuceConnectionFactory lettuceConnectionFactory() {
+        URI uri = URI.create(connectAddress());
+        LettuceConnectionFactory factory = new LettuceConnectionFactory(new RedisStandaloneConfiguration(uri.getHost(), uri.getPort()));
+        factory.afterPropertiesSet();
+        factory.start();
+        return factory;
+    }
+
+    public static StringRedisTemplate stringRedisTemplate(LettuceConnectionFactory factory) {
+        StringRedisTemplate template = new StringRedisTemplate(factory);
+        template.afterPropertiesSet();
+        return template;
+    }
+}
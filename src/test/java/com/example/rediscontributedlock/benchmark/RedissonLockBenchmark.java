@@ -0,0 +1,61 @@
+package com.example.rediscontributedlock.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.redisson.api.RLock;
+import org.redisson.api.RedissonClient;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Controller 中 Redisson 的 lock、tryLock、公平鎖，臨界區為空，只量測鎖本身的成本。
+ */
+@State(Scope.Benchmark)
+public class RedissonLockBenchmark {
+
+    private static final String KEY = "benchmark:redisson:lock";
+
+    private static final String FAIR_KEY = "benchmark:redisson:fairLock";
+
+    private RedissonClient redissonClient;
+
+    @Setup
+    public void setUp() {
+        redissonClient = RedisBenchmarkSupport.redissonClient();
+    }
+
+    @TearDown
+    public void tearDown() {
+        redissonClient.shutdown();
+    }
+
+    @Benchmark
+    public void lock() {
+        RLock lock = redissonClient.getLock(KEY);
+        lock.lock();
+        lock.unlock();
+    }
+
+    /**
+     * 等待最多 30 秒，看門狗續期；取不到鎖的次數會反映在吞吐量上。
+     */
+    @Benchmark
+    public boolean tryLock() throws InterruptedException {
+        RLock lock = redissonClient.getLock(KEY);
+        boolean locked = lock.tryLock(30, TimeUnit.SECONDS);
+        if (locked) {
+            lock.unlock();
+        }
+        return locked;
+    }
+
+    @Benchmark
+    public void fairLock() {
+        RLock lock = redissonClient.getFairLock(FAIR_KEY);
+        lock.lock();
+        lock.unlock();
+    }
+}
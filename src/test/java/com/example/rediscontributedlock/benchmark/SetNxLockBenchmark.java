@@ -0,0 +1,122 @@
+package com.example.rediscontributedlock.benchmark;
+
+import com.example.rediscontributedlock.lock.BackoffWaitStrategy;
+import com.example.rediscontributedlock.lock.PubSubWaitStrategy;
+import com.example.rediscontributedlock.lock.RedisDistributedLock;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Controller.getLockV1 ~ getLockV6 的取鎖、釋放流程，臨界區為空，只量測鎖本身的成本。
+ * V1 ~ V5 原本失敗時 sleep 1 秒再遞歸重試，這裡改成每 0.1 毫秒重試一次，否則量到的只是 sleep。
+ */
+@State(Scope.Benchmark)
+public class SetNxLockBenchmark {
+
+    private static final String KEY = "benchmark:setnx:lock";
+
+    private static final long RETRY_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+    private static final DefaultRedisScript<Long> UNLOCK_SCRIPT = new DefaultRedisScript<>(
+        "if redis.call('get',KEYS[1]) == ARGV[1] then return redis.call('del',KEYS[1]) else return 0 end", Long.class);
+
+    private LettuceConnectionFactory connectionFactory;
+
+    private StringRedisTemplate redisTemplate;
+
+    private RedisMessageListenerContainer listenerContainer;
+
+    private BackoffWaitStrategy backoffWaitStrategy;
+
+    private PubSubWaitStrategy pubSubWaitStrategy;
+
+    @Setup
+    public void setUp() {
+        connectionFactory = RedisBenchmarkSupport.lettuceConnectionFactory();
+        redisTemplate = RedisBenchmarkSupport.stringRedisTemplate(connectionFactory);
+        listenerContainer = new RedisMessageListenerContainer();
+        listenerContainer.setConnectionFactory(connectionFactory);
+        listenerContainer.afterPropertiesSet();
+        listenerContainer.start();
+        backoffWaitStrategy = new BackoffWaitStrategy(1, 50);
+        pubSubWaitStrategy = new PubSubWaitStrategy(listenerContainer, 100);
+        redisTemplate.delete(KEY);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        listenerContainer.destroy();
+        connectionFactory.destroy();
+    }
+
+    @Benchmark
+    public void setNxV1() {
+        while (!Boolean.TRUE.equals(redisTemplate.opsForValue().setIfAbsent(KEY, "123"))) {
+            LockSupport.parkNanos(RETRY_NANOS);
+        }
+        redisTemplate.delete(KEY);
+    }
+
+    @Benchmark
+    public void setNxV2() {
+        while (!Boolean.TRUE.equals(redisTemplate.opsForValue().setIfAbsent(KEY, "123"))) {
+            LockSupport.parkNanos(RETRY_NANOS);
+        }
+        redisTemplate.expire(KEY, 10, TimeUnit.SECONDS);
+        redisTemplate.delete(KEY);
+    }
+
+    @Benchmark
+    public void setNxV3() {
+        while (!Boolean.TRUE.equals(redisTemplate.opsForValue().setIfAbsent(KEY, "123", 10, TimeUnit.SECONDS))) {
+            LockSupport.parkNanos(RETRY_NANOS);
+        }
+        redisTemplate.delete(KEY);
+    }
+
+    @Benchmark
+    public void setNxV4() {
+        String uuid = UUID.randomUUID().toString();
+        while (!Boolean.TRUE.equals(redisTemplate.opsForValue().setIfAbsent(KEY, uuid, 10, TimeUnit.SECONDS))) {
+            LockSupport.parkNanos(RETRY_NANOS);
+        }
+        if (uuid.equals(redisTemplate.opsForValue().get(KEY))) {
+            redisTemplate.delete(KEY);
+        }
+    }
+
+    @Benchmark
+    public void setNxV5() {
+        String uuid = UUID.randomUUID().toString();
+        while (!Boolean.TRUE.equals(redisTemplate.opsForValue().setIfAbsent(KEY, uuid, 10, TimeUnit.SECONDS))) {
+            LockSupport.parkNanos(RETRY_NANOS);
+        }
+        redisTemplate.execute(UNLOCK_SCRIPT, List.of(KEY), uuid);
+    }
+
+    @Benchmark
+    public void distributedLockBackoff() throws InterruptedException {
+        RedisDistributedLock lock = new RedisDistributedLock(redisTemplate, KEY, 10000, backoffWaitStrategy);
+        lock.lock();
+        lock.unlock();
+    }
+
+    @Benchmark
+    public void distributedLockPubSub() throws InterruptedException {
+        RedisDistributedLock lock = new RedisDistributedLock(redisTemplate, KEY, 10000, pubSubWaitStrategy);
+        lock.lock();
+        lock.unlock();
+    }
+}
@@ -0,0 +1,275 @@
+package com.example.rediscontributedlock.loadtest;
+
+import com.example.rediscontributedlock.benchmark.RedisBenchmarkSupport;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.HdrHistogram.Histogram;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 對搶票、紅包、選課端點施壓的負載產生器，結束後輸出延遲百分位數並直接讀 Redis 檢查正確性（不超賣、紅包總額守恆、不重複選課）。
+ * <ul>
+ * <li>open：開放模型，依 load.rate 的固定到達率送出請求，不等前一個請求完成，模擬大量獨立用戶。</li>
+ * <li>closed：封閉模型，load.concurrency 個用戶各自送出請求、等回應後再送下一個；
+ * 設定 load.rate 時每個用戶依 rate / concurrency 的節奏送出，否則完成即送出下一個。</li>
+ * </ul>
+ * 延遲從預定送出時間算起，伺服器塞住時排隊等送出的時間也算在內，避免 coordinated omission 讓百分位數看起來比實際好；
+ * 另外列出從實際送出時間算起的服務時間做對照。不設 load.rate 的封閉模型沒有預定時間，兩者相同。
+ * <p>
+ * 需先啟動應用程式與 redis-server，執行方式：
+ * <pre>
+ * mvn -Ploadtest test-compile exec:java -Dload.scenario=TICKETS_LUA -Dload.mode=open -Dload.rate=2000
+ * </pre>
+ * 直方圖另外輸出到 target/loadtest-&lt;scenario&gt;-&lt;mode&gt;.hgrm，可用 HdrHistogram 的 plotter 畫圖。
+ * 有任何正確性檢查失敗時拋出例外，讓 Maven 建置失敗。
+ */
+public class LoadGenerator {
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    final String baseUrl = System.getProperty("load.base-url", "http://localhost:8080");
+
+    final LoadScenario scenario = LoadScenario.valueOf(System.getProperty("load.scenario", "TICKETS_LUA").toUpperCase(Locale.ROOT));
+
+    final String mode = System.getProperty("load.mode", "open").toLowerCase(Locale.ROOT);
+
+    /**
+     * 每秒請求數，open 模式必填；closed 模式為 0 時不限速。
+     */
+    final double rate = Double.parseDouble(System.getProperty("load.rate", "1000"));
+
+    final int concurrency = Integer.getInteger("load.concurrency", 64);
+
+    final Duration duration = Duration.ofSeconds(Long.getLong("load.duration-seconds", 30L));
+
+    final Duration timeout = Duration.ofMillis(Long.getLong("load.timeout-millis", 30_000L));
+
+    /**
+     * 搶票情境的總票數。
+     */
+    final int quantity = Integer.getInteger("load.quantity", 1000);
+
+    /**
+     * 選課情境的學生數、座位數與課程 ID。
+     */
+    final int students = Integer.getInteger("load.students", 500);
+
+    final int seats = Integer.getInteger("load.seats", 40);
+
+    final long courseId = Long.getLong("load.course-id", 1L);
+
+    private final ExecutorService httpExecutor = Executors.newFixedThreadPool(Math.max(4, Runtime.getRuntime().availableProcessors()));
+
+    private final HttpClient httpClient = HttpClient.newBuilder()
+        .executor(httpExecutor)
+        .connectTimeout(Duration.ofSeconds(5))
+        .build();
+
+    private final AtomicLong requestIndex = new AtomicLong();
+
+    public static void main(String[] args) throws Exception {
+        LoadGenerator generator = new LoadGenerator();
+        boolean passed;
+        try {
+            passed = generator.run();
+        } finally {
+            generator.httpExecutor.shutdownNow();
+        }
+        if (!passed) {
+            throw new IllegalStateException("正確性檢查失敗");
+        }
+    }
+
+    boolean run() throws InterruptedException, FileNotFoundException {
+        LettuceConnectionFactory connectionFactory = RedisBenchmarkSupport.lettuceConnectionFactory();
+        try {
+            StringRedisTemplate redis = RedisBenchmarkSupport.stringRedisTemplate(connectionFactory);
+            long baseline = scenario.setup(this, redis);
+            LoadStats stats = new LoadStats();
+
+            long startNanos = System.nanoTime();
+            if ("closed".equals(mode)) {
+                runClosedLoop(stats);
+            } else if ("open".equals(mode)) {
+                runOpenLoop(stats);
+            } else {
+                throw new IllegalArgumentException("load.mode 只能是 open 或 closed：" + mode);
+            }
+            long elapsedNanos = System.nanoTime() - startNanos;
+
+            List<String> violations = new ArrayList<>();
+            scenario.verify(this, redis, baseline, stats, violations);
+            report(stats, elapsedNanos, violations);
+            return violations.isEmpty();
+        } finally {
+            connectionFactory.destroy();
+        }
+    }
+
+    /**
+     * 依固定到達率排定每個請求的送出時間，由單一執行緒準時送出非同步請求，不受前面請求是否完成影響。
+     * 送出執行緒本身落後時（例如 GC），之後的請求仍以原本排定的時間計算延遲。
+     */
+    private void runOpenLoop(LoadStats stats) throws InterruptedException {
+        if (rate <= 0) {
+            throw new IllegalArgumentException("open 模式需要 load.rate > 0");
+        }
+        long intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / rate);
+        long startNanos = System.nanoTime();
+        long endNanos = startNanos + duration.toNanos();
+        List<CompletableFuture<Void>> inFlight = new ArrayList<>();
+
+        for (long i = 0; ; i++) {
+            long intendedNanos = startNanos + i * intervalNanos;
+            if (intendedNanos >= endNanos) {
+                break;
+            }
+            long waitNanos;
+            while ((waitNanos = intendedNanos - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(waitNanos);
+            }
+            inFlight.add(send(intendedNanos, stats));
+        }
+        awaitCompletion(inFlight);
+    }
+
+    /**
+     * concurrency 個用戶各自循序送出請求。有設定 rate 時每個用戶依自己的節奏排定送出時間，
+     * 前一個請求太慢而錯過排定時間時立刻送出，延遲仍從排定時間算起。
+     */
+    private void runClosedLoop(LoadStats stats) throws InterruptedException {
+        long intervalNanos = rate > 0 ? (long) (TimeUnit.SECONDS.toNanos(1) * concurrency / rate) : 0L;
+        long startNanos = System.nanoTime();
+        long endNanos = startNanos + duration.toNanos();
+        List<Thread> users = new ArrayList<>();
+
+        for (int u = 0; u < concurrency; u++) {
+            //錯開每個用戶的起點，避免所有用戶在同一瞬間送出
+            long offsetNanos = intervalNanos * u / concurrency;
+            Thread user = new Thread(() -> {
+                long intendedNanos = startNanos + offsetNanos;
+                while (intendedNanos < endNanos) {
+                    long waitNanos;
+                    while ((waitNanos = intendedNanos - System.nanoTime()) > 0) {
+                        LockSupport.parkNanos(waitNanos);
+                    }
+                    send(intervalNanos > 0 ? intendedNanos : System.nanoTime(), stats).join();
+                    intendedNanos = intervalNanos > 0 ? intendedNanos + intervalNanos : System.nanoTime();
+                }
+            }, "load-user-" + u);
+            users.add(user);
+            user.start();
+        }
+        for (Thread user : users) {
+            user.join();
+        }
+    }
+
+    private CompletableFuture<Void> send(long intendedNanos, LoadStats stats) {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(baseUrl + scenario.path(this, requestIndex.getAndIncrement())))
+            .timeout(timeout)
+            .GET()
+            .build();
+        long sentNanos = System.nanoTime();
+        return httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofString())
+            .handle((response, error) -> {
+                stats.record(intendedNanos, sentNanos, System.nanoTime());
+                if (error != null || response.statusCode() / 100 != 2) {
+                    stats.errors.increment();
+                } else {
+                    onResponse(response.body(), stats);
+                }
+                return null;
+            });
+    }
+
+    private void onResponse(String body, LoadStats stats) {
+        try {
+            JsonNode node = body == null || body.isEmpty() ? OBJECT_MAPPER.nullNode() : OBJECT_MAPPER.readTree(body);
+            scenario.onResponse(node, stats);
+        } catch (IOException e) {
+            stats.errors.increment();
+        }
+    }
+
+    private void awaitCompletion(List<CompletableFuture<Void>> inFlight) throws InterruptedException {
+        try {
+            CompletableFuture.allOf(inFlight.toArray(new CompletableFuture[0]))
+                .get(timeout.toMillis() + 5_000L, TimeUnit.MILLISECONDS);
+        } catch (Exception e) {
+            if (e instanceof InterruptedException) {
+                throw (InterruptedException) e;
+            }
+            System.err.println("等待未完成的請求逾時：" + e);
+        }
+    }
+
+    /**
+     * 準備資料用的同步呼叫。
+     */
+    void call(String path) {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(baseUrl + path)).timeout(timeout).GET().build();
+        try {
+            HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+            if (response.statusCode() / 100 != 2) {
+                throw new IllegalStateException(path + " 回應 " + response.statusCode());
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("呼叫 " + path + " 失敗", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("呼叫 " + path + " 被中斷", e);
+        }
+    }
+
+    private void report(LoadStats stats, long elapsedNanos, List<String> violations) throws FileNotFoundException {
+        double seconds = elapsedNanos / 1e9;
+        System.out.printf("%n情境 %s，模式 %s，目標速率 %s，並行數 %d%n", scenario, mode,
+            rate > 0 ? String.format("%.0f req/s", rate) : "不限", "closed".equals(mode) ? concurrency : 0);
+        System.out.printf("完成 %d 個請求，耗時 %.1f 秒，實際吞吐量 %.0f req/s%n", stats.completed(), seconds, stats.completed() / seconds);
+        System.out.printf("成功 %d，失敗 %d，錯誤 %d%n", stats.successes.sum(), stats.failures.sum(), stats.errors.sum());
+        printPercentiles("延遲（從預定送出時間起算）", stats.latency);
+        printPercentiles("服務時間（從實際送出時間起算）", stats.serviceTime);
+
+        String file = "target/loadtest-" + scenario.name().toLowerCase(Locale.ROOT) + "-" + mode + ".hgrm";
+        try (PrintStream out = new PrintStream(file)) {
+            stats.latency.outputPercentileDistribution(out, 1000.0);
+        }
+        System.out.println("直方圖輸出到 " + file);
+
+        if (violations.isEmpty()) {
+            System.out.println("正確性檢查通過");
+        } else {
+            violations.forEach(violation -> System.out.println("正確性檢查失敗：" + violation));
+        }
+    }
+
+    private static void printPercentiles(String title, Histogram histogram) {
+        System.out.printf("%s（毫秒）：p50 %.2f，p90 %.2f，p99 %.2f，p99.9 %.2f，p99.99 %.2f，max %.2f%n", title,
+            histogram.getValueAtPercentile(50) / 1000.0,
+            histogram.getValueAtPercentile(90) / 1000.0,
+            histogram.getValueAtPercentile(99) / 1000.0,
+            histogram.getValueAtPercentile(99.9) / 1000.0,
+            histogram.getValueAtPercentile(99.99) / 1000.0,
+            histogram.getMaxValue() / 1000.0);
+    }
+}
@@ -0,0 +1,273 @@
+package com.example.rediscontributedlock.loadtest;
+
+import com.example.rediscontributedlock.service.RedEnvelopeKeys;
+import com.fasterxml.jackson.databind.JsonNode;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.math.BigDecimal;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 壓測情境：每個情境負責準備資料、產生請求路徑，並在壓測結束後直接讀 Redis 檢查正確性。
+ * 有請求逾時或連線失敗時，伺服器端可能已經處理成功，檢查時把錯誤次數當成誤差範圍。
+ */
+enum LoadScenario {
+
+    /**
+     * 無鎖 Lua 搶票：不可超賣，扣掉的票數等於成功回應數。
+     */
+    TICKETS_LUA("/grabTickets/api/getTicketByLua") {
+        @Override
+        long setup(LoadGenerator generator, StringRedisTemplate redis) {
+            return setupTickets(generator);
+        }
+
+        @Override
+        void verify(LoadGenerator generator, StringRedisTemplate redis, long baseline, LoadStats stats, List<String> violations) {
+            verifyTickets(redis, baseline, stats, violations);
+        }
+    },
+
+    /**
+     * 以 Redisson lockAsync 保護的搶票，檢查條件同 TICKETS_LUA。
+     */
+    TICKETS_ASYNC("/grabTickets/api/getTicketAsync") {
+        @Override
+        long setup(LoadGenerator generator, StringRedisTemplate redis) {
+            return setupTickets(generator);
+        }
+
+        @Override
+        void verify(LoadGenerator generator, StringRedisTemplate redis, long baseline, LoadStats stats, List<String> violations) {
+            verifyTickets(redis, baseline, stats, violations);
+        }
+    },
+
+    /**
+     * RPermitExpirableSemaphore 的 permit 搶票：可用 permit 數不可為負，減少的數量等於成功回應數。
+     */
+    TICKETS_SEMAPHORE("/grabTickets/api/getTicketBySemaphore") {
+        @Override
+        long setup(LoadGenerator generator, StringRedisTemplate redis) {
+            generator.call("/grabTickets/api/setTicketsPermits?quantity=" + generator.quantity);
+            return generator.quantity;
+        }
+
+        @Override
+        void verify(LoadGenerator generator, StringRedisTemplate redis, long baseline, LoadStats stats, List<String> violations) {
+            //Redisson 把可用 permit 數以純數字存在 semaphore 名稱的鍵上
+            String value = redis.opsForValue().get(TICKET_PERMITS_KEY);
+            long available = value == null ? 0 : Long.parseLong(value);
+            if (available < 0) {
+                violations.add("超賣：可用 permit 數為 " + available);
+            }
+            if (stats.successes.sum() > baseline) {
+                violations.add("超賣：成功搶到 " + stats.successes.sum() + " 張，總票數只有 " + baseline);
+            }
+            checkWithinErrors("減少的 permit 數", baseline - available, stats, violations);
+        }
+    },
+
+    /**
+     * 無鎖 Lua 領紅包，每個請求是不同的用戶：剩餘金額加上已領金額等於總金額，領取紀錄與成功回應一致。
+     */
+    ENVELOPES("/redEnvelope/api/claimRedEnvelope") {
+        @Override
+        long setup(LoadGenerator generator, StringRedisTemplate redis) {
+            return setupEnvelopes(generator, redis);
+        }
+
+        @Override
+        String path(LoadGenerator generator, long requestIndex) {
+            return super.path(generator, requestIndex) + "?userId=load-" + requestIndex;
+        }
+
+        @Override
+        void onResponse(JsonNode body, LoadStats stats) {
+            onEnvelopeResponse(body, stats);
+        }
+
+        @Override
+        void verify(LoadGenerator generator, StringRedisTemplate redis, long baseline, LoadStats stats, List<String> violations) {
+            long remaining = remainingEnvelopeCents(redis);
+            long claimed = redis.<String, String>opsForHash().values(RED_POCKET_CLAIMED_KEY).stream().mapToLong(LoadScenario::toCents).sum();
+            Long claimedUsers = redis.opsForHash().size(RED_POCKET_CLAIMED_KEY);
+            if (remaining + claimed != baseline) {
+                violations.add("紅包總金額不守恆：剩餘 " + remaining + " 分 + 已領 " + claimed + " 分 != 總額 " + baseline + " 分");
+            }
+            if (stats.errors.sum() == 0 && claimed != stats.claimedCents.sum()) {
+                violations.add("領取紀錄的金額 " + claimed + " 分與成功回應的金額 " + stats.claimedCents.sum() + " 分不符");
+            }
+            checkWithinErrors("領取紀錄筆數", claimedUsers == null ? 0 : claimedUsers, stats, violations);
+        }
+    },
+
+    /**
+     * 以 Redisson lockAsync 保護的搶紅包：剩餘金額加上成功回應的金額等於總金額。
+     */
+    ENVELOPES_ASYNC("/redEnvelope/api/grabRedEnvelopeAsync") {
+        @Override
+        long setup(LoadGenerator generator, StringRedisTemplate redis) {
+            return setupEnvelopes(generator, redis);
+        }
+
+        @Override
+        void onResponse(JsonNode body, LoadStats stats) {
+            onEnvelopeResponse(body, stats);
+        }
+
+        @Override
+        void verify(LoadGenerator generator, StringRedisTemplate redis, long baseline, LoadStats stats, List<String> violations) {
+            long remaining = remainingEnvelopeCents(redis);
+            long claimed = stats.claimedCents.sum();
+            if (remaining + claimed > baseline || (stats.errors.sum() == 0 && remaining + claimed != baseline)) {
+                violations.add("紅包總金額不守恆：剩餘 " + remaining + " 分 + 已領 " + claimed + " 分，總額 " + baseline + " 分");
+            }
+        }
+    },
+
+    /**
+     * 無鎖 Lua 選課（reactive 端點）：每個學生最多佔一個座位，已選學生集合與佔用座位一致。
+     * reactive 端點只在以 reactive profile 啟動的 WebFlux 應用程式上提供，需加上 -Dload.base-url=http://localhost:8081。
+     */
+    ENROLLMENT("/reactive/api/enrollCourse") {
+        @Override
+        long setup(LoadGenerator generator, StringRedisTemplate redis) {
+            Map<String, String> seats = new HashMap<>();
+            for (int i = 1; i <= generator.seats; i++) {
+                seats.put("seat:" + i, "available");
+            }
+            redis.delete(List.of(courseKey(generator), enrolledKey(generator)));
+            redis.opsForHash().putAll(courseKey(generator), seats);
+            return generator.seats;
+        }
+
+        @Override
+        String path(LoadGenerator generator, long requestIndex) {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            return super.path(generator, requestIndex)
+                + "?studentId=" + random.nextLong(1, generator.students + 1)
+                + "&courseId=" + generator.courseId
+                + "&seat=seat:" + random.nextInt(1, generator.seats + 1);
+        }
+
+        @Override
+        void verify(LoadGenerator generator, StringRedisTemplate redis, long baseline, LoadStats stats, List<String> violations) {
+            Map<String, Long> seatsPerStudent = new HashMap<>();
+            redis.<String, String>opsForHash().values(courseKey(generator)).stream()
+                .filter(value -> !"available".equals(value))
+                .forEach(studentId -> seatsPerStudent.merge(studentId, 1L, Long::sum));
+            seatsPerStudent.forEach((studentId, count) -> {
+                if (count > 1) {
+                    violations.add("學生 " + studentId + " 重複選課，佔了 " + count + " 個座位");
+                }
+            });
+            long occupied = seatsPerStudent.values().stream().mapToLong(Long::longValue).sum();
+            if (occupied > baseline) {
+                violations.add("佔用座位數 " + occupied + " 超過座位總數 " + baseline);
+            }
+            Set<String> enrolled = redis.opsForSet().members(enrolledKey(generator));
+            if (enrolled == null || !enrolled.equals(seatsPerStudent.keySet())) {
+                violations.add("已選學生集合與座位佔用者不一致");
+            }
+            checkWithinErrors("佔用座位數", occupied, stats, violations);
+        }
+    };
+
+    private static final String TICKET_KEY = "tickets:quantity";
+
+    private static final String TICKET_PERMITS_KEY = "tickets:permits";
+
+    private static final String RED_POCKET_KEY = RedEnvelopeKeys.LIST_KEY;
+
+    private static final String RED_POCKET_CLAIMED_KEY = RedEnvelopeKeys.CLAIMED_KEY;
+
+    private final String path;
+
+    LoadScenario(String path) {
+        this.path = path;
+    }
+
+    /**
+     * 準備資料，回傳檢查時的基準值（票數、紅包總金額或座位數）。
+     */
+    abstract long setup(LoadGenerator generator, StringRedisTemplate redis);
+
+    abstract void verify(LoadGenerator generator, StringRedisTemplate redis, long baseline, LoadStats stats, List<String> violations);
+
+    String path(LoadGenerator generator, long requestIndex) {
+        return path;
+    }
+
+    void onResponse(JsonNode body, LoadStats stats) {
+        if (body.path("result").asBoolean(false)) {
+            stats.successes.increment();
+        } else {
+            stats.failures.increment();
+        }
+    }
+
+    private static long setupTickets(LoadGenerator generator) {
+        generator.call("/grabTickets/api/setTicketsQuantity?quantity=" + generator.quantity);
+        return generator.quantity;
+    }
+
+    private static void verifyTickets(StringRedisTemplate redis, long baseline, LoadStats stats, List<String> violations) {
+        String value = redis.opsForValue().get(TICKET_KEY);
+        long remaining = value == null ? 0 : Long.parseLong(value);
+        if (remaining < 0) {
+            violations.add("超賣：剩餘票數為 " + remaining);
+        }
+        if (stats.successes.sum() > baseline) {
+            violations.add("超賣：成功搶到 " + stats.successes.sum() + " 張，總票數只有 " + baseline);
+        }
+        checkWithinErrors("扣減的票數", baseline - remaining, stats, violations);
+    }
+
+    private static long setupEnvelopes(LoadGenerator generator, StringRedisTemplate redis) {
+        //installRedEnvelopes 是 append，先清掉上一輪剩下的紅包
+        redis.delete(RED_POCKET_KEY);
+        generator.call("/redEnvelope/api/installRedEnvelopes");
+        return remainingEnvelopeCents(redis);
+    }
+
+    private static void onEnvelopeResponse(JsonNode body, LoadStats stats) {
+        if (body.path("result").asBoolean(false)) {
+            stats.successes.increment();
+            stats.claimedCents.add(toCents(body.path("data").asText()));
+        } else {
+            stats.failures.increment();
+        }
+    }
+
+    private static long remainingEnvelopeCents(StringRedisTemplate redis) {
+        List<String> amounts = redis.opsForList().range(RED_POCKET_KEY, 0, -1);
+        return amounts == null ? 0 : amounts.stream().mapToLong(LoadScenario::toCents).sum();
+    }
+
+    private static long toCents(String amount) {
+        return new BigDecimal(amount).movePointRight(2).longValueExact();
+    }
+
+    /**
+     * Redis 上的實際變化量必須介於成功回應數與成功回應數加錯誤數之間。
+     */
+    private static void checkWithinErrors(String name, long actual, LoadStats stats, List<String> violations) {
+        long successes = stats.successes.sum();
+        if (actual < successes || actual > successes + stats.errors.sum()) {
+            violations.add(name + " " + actual + " 與成功回應數 " + successes + "（錯誤 " + stats.errors.sum() + "）不符");
+        }
+    }
+
+    private static String courseKey(LoadGenerator generator) {
+        return "course:data:" + generator.courseId;
+    }
+
+    private static String enrolledKey(LoadGenerator generator) {
+        return "course:enrolled:" + generator.courseId;
+    }
+}
@@ -0,0 +1,52 @@
+package com.example.rediscontributedlock.loadtest;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 一次壓測的統計：延遲直方圖（微秒）以及成功、失敗、錯誤次數。
+ * 延遲一律從「預定送出時間」算到收到回應，請求因為前面的請求塞住而晚送出時，晚掉的時間也算在延遲內（修正 coordinated omission）。
+ */
+class LoadStats {
+
+    private static final long HIGHEST_TRACKABLE_MICROS = TimeUnit.MINUTES.toMicros(5);
+
+    final Histogram latency = new ConcurrentHistogram(HIGHEST_TRACKABLE_MICROS, 3);
+
+    /**
+     * 從實際送出時間算起的延遲，只用來和 latency 對照 coordinated omission 的影響。
+     */
+    final Histogram serviceTime = new ConcurrentHistogram(HIGHEST_TRACKABLE_MICROS, 3);
+
+    /**
+     * 回應 result = true 的次數。
+     */
+    final LongAdder successes = new LongAdder();
+
+    /**
+     * 回應 result = false 的次數。
+     */
+    final LongAdder failures = new LongAdder();
+
+    /**
+     * 非 2xx、逾時或連線失敗的次數。
+     */
+    final LongAdder errors = new LongAdder();
+
+    /**
+     * 成功領到的紅包金額總和，以分為單位。
+     */
+    final LongAdder claimedCents = new LongAdder();
+
+    void record(long intendedNanos, long sentNanos, long completedNanos) {
+        latency.recordValue(Math.min(HIGHEST_TRACKABLE_MICROS, TimeUnit.NANOSECONDS.toMicros(completedNanos - intendedNanos)));
+        serviceTime.recordValue(Math.min(HIGHEST_TRACKABLE_MICROS, TimeUnit.NANOSECONDS.toMicros(completedNanos - sentNanos)));
+    }
+
+    long completed() {
+        return successes.sum() + failures.sum() + errors.sum();
+    }
+}
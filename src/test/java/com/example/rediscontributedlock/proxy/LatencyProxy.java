@@ -0,0 +1,325 @@
+package com.example.rediscontributedlock.proxy;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URI;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 放在應用程式與本機 redis-server 之間的 TCP 代理，用來模擬跨可用區的網路：
+ * <ul>
+ * <li>latency：每次往返額外增加的延遲，上行、下行各分一半。</li>
+ * <li>jitter：每個封包另外加上 [0, jitter) 的隨機延遲，同一方向的資料仍依序送達。</li>
+ * <li>stall：整個代理暫停轉送一段時間，資料先暫存，結束後一次送出，可觀察鎖的租期到期與看門狗續期。</li>
+ * <li>drop：切斷目前所有連線，可觀察客戶端重連與進行中的命令如何失敗。</li>
+ * </ul>
+ * 所有設定都可以在執行中調整。單獨執行時以系統屬性設定：
+ * <pre>
+ * mvn -Predis-proxy test-compile exec:java -Dproxy.latency-millis=2 -Dproxy.jitter-millis=0.5
+ * </pre>
+ * 再以 --redis.port=6380 啟動應用程式，讓 RedisConfig、RedissonConfig 都經過代理。
+ */
+public class LatencyProxy implements AutoCloseable {
+
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    private static final Chunk END_OF_STREAM = new Chunk(0L, new byte[0]);
+
+    private final int listenPort;
+
+    private final String upstreamHost;
+
+    private final int upstreamPort;
+
+    private final Set<Connection> connections = ConcurrentHashMap.newKeySet();
+
+    private final AtomicInteger connectionIds = new AtomicInteger();
+
+    private volatile long oneWayDelayNanos;
+
+    private volatile long jitterNanos;
+
+    private volatile long stalledUntilNanos = System.nanoTime();
+
+    private volatile boolean closed;
+
+    private ServerSocket serverSocket;
+
+    private ScheduledExecutorService faultScheduler;
+
+    /**
+     * @param listenPort 監聽的埠號，0 代表由系統挑選，啟動後以 getPort() 取得
+     */
+    public LatencyProxy(int listenPort, String upstreamHost, int upstreamPort) {
+        this.listenPort = listenPort;
+        this.upstreamHost = upstreamHost;
+        this.upstreamPort = upstreamPort;
+    }
+
+    public LatencyProxy start() throws IOException {
+        serverSocket = new ServerSocket();
+        serverSocket.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), listenPort));
+        daemon("latency-proxy-accept", this::acceptLoop).start();
+        return this;
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    public String getAddress() {
+        return "redis://127.0.0.1:" + getPort();
+    }
+
+    public void setLatency(Duration roundTrip) {
+        oneWayDelayNanos = roundTrip.toNanos() / 2;
+    }
+
+    public void setJitter(Duration jitter) {
+        jitterNanos = jitter.toNanos();
+    }
+
+    /**
+     * 從現在起暫停轉送 duration，已在暫停中時取兩者較晚的結束時間。
+     */
+    public void stall(Duration duration) {
+        long until = System.nanoTime() + duration.toNanos();
+        if (until - stalledUntilNanos > 0) {
+            stalledUntilNanos = until;
+        }
+    }
+
+    /**
+     * 切斷目前所有連線，之後的新連線不受影響。
+     */
+    public void dropConnections() {
+        connections.forEach(Connection::close);
+    }
+
+    /**
+     * 每隔 every 暫停轉送 length。
+     */
+    public void scheduleStalls(Duration every, Duration length) {
+        faultScheduler().scheduleAtFixedRate(() -> stall(length), every.toNanos(), every.toNanos(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * 每隔 every 切斷所有連線。
+     */
+    public void scheduleDrops(Duration every) {
+        faultScheduler().scheduleAtFixedRate(this::dropConnections, every.toNanos(), every.toNanos(), TimeUnit.NANOSECONDS);
+    }
+
+    public int getConnectionCount() {
+        return connections.size();
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        if (faultScheduler != null) {
+            faultScheduler.shutdownNow();
+        }
+        try {
+            if (serverSocket != null) {
+                serverSocket.close();
+            }
+        } catch (IOException ignored) {
+            //關閉中，忽略
+        }
+        dropConnections();
+    }
+
+    private synchronized ScheduledExecutorService faultScheduler() {
+        if (faultScheduler == null) {
+            faultScheduler = Executors.newSingleThreadScheduledExecutor(r -> daemon("latency-proxy-faults", r));
+        }
+        return faultScheduler;
+    }
+
+    private void acceptLoop() {
+        while (!closed) {
+            Socket client;
+            try {
+                client = serverSocket.accept();
+            } catch (IOException e) {
+                //close() 關掉了 serverSocket
+                return;
+            }
+            try {
+                Socket upstream = new Socket(upstreamHost, upstreamPort);
+                client.setTcpNoDelay(true);
+                upstream.setTcpNoDelay(true);
+                Connection connection = new Connection(connectionIds.incrementAndGet(), client, upstream);
+                connections.add(connection);
+                connection.start();
+            } catch (IOException e) {
+                System.err.println("無法連線到 " + upstreamHost + ":" + upstreamPort + "：" + e.getMessage());
+                closeQuietly(client);
+            }
+        }
+    }
+
+    /**
+     * 送達時間 = 讀到的時間 + 單程延遲 + 隨機 jitter，且不早於同方向上一個封包，保持順序。
+     */
+    private long deliverAt(long previousNanos) {
+        long jitter = jitterNanos;
+        long at = System.nanoTime() + oneWayDelayNanos + (jitter > 0 ? ThreadLocalRandom.current().nextLong(jitter) : 0L);
+        return at - previousNanos > 0 ? at : previousNanos;
+    }
+
+    private void awaitDelivery(long deliverAtNanos) throws InterruptedException {
+        while (true) {
+            long until = stalledUntilNanos - deliverAtNanos > 0 ? stalledUntilNanos : deliverAtNanos;
+            long waitNanos = until - System.nanoTime();
+            if (waitNanos <= 0) {
+                return;
+            }
+            LockSupport.parkNanos(waitNanos);
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+        }
+    }
+
+    private static Thread daemon(String name, Runnable task) {
+        Thread thread = new Thread(task, name);
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+            //已關閉，忽略
+        }
+    }
+
+    private static final class Chunk {
+        private final long deliverAtNanos;
+        private final byte[] data;
+
+        private Chunk(long deliverAtNanos, byte[] data) {
+            this.deliverAtNanos = deliverAtNanos;
+            this.data = data;
+        }
+    }
+
+    /**
+     * 一條客戶端連線與對應的上游連線，每個方向一個讀執行緒、一個寫執行緒，中間以佇列延遲送出。
+     */
+    private final class Connection {
+
+        private final int id;
+
+        private final Socket client;
+
+        private final Socket upstream;
+
+        /**
+         * 兩個方向都讀到 EOF 並送完後才關閉連線。
+         */
+        private final AtomicInteger finishedPipes = new AtomicInteger();
+
+        private Connection(int id, Socket client, Socket upstream) {
+            this.id = id;
+            this.client = client;
+            this.upstream = upstream;
+        }
+
+        private void start() throws IOException {
+            pipe("up", client.getInputStream(), upstream.getOutputStream(), upstream);
+            pipe("down", upstream.getInputStream(), client.getOutputStream(), client);
+        }
+
+        private void pipe(String direction, InputStream in, OutputStream out, Socket target) {
+            BlockingQueue<Chunk> queue = new LinkedBlockingQueue<>();
+            String name = "latency-proxy-" + id + "-" + direction;
+
+            daemon(name + "-read", () -> {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                long previous = System.nanoTime();
+                try {
+                    int n;
+                    while ((n = in.read(buffer)) != -1) {
+                        previous = deliverAt(previous);
+                        queue.add(new Chunk(previous, Arrays.copyOf(buffer, n)));
+                    }
+                } catch (IOException e) {
+                    //連線被切斷
+                }
+                queue.add(END_OF_STREAM);
+            }).start();
+
+            daemon(name + "-write", () -> {
+                try {
+                    while (true) {
+                        Chunk chunk = queue.take();
+                        if (chunk == END_OF_STREAM) {
+                            target.shutdownOutput();
+                            if (finishedPipes.incrementAndGet() == 2) {
+                                close();
+                            }
+                            break;
+                        }
+                        awaitDelivery(chunk.deliverAtNanos);
+                        out.write(chunk.data);
+                        out.flush();
+                    }
+                } catch (IOException | InterruptedException e) {
+                    close();
+                }
+            }).start();
+        }
+
+        private void close() {
+            connections.remove(this);
+            closeQuietly(client);
+            closeQuietly(upstream);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        URI upstream = URI.create(System.getProperty("proxy.upstream", "redis://127.0.0.1:6379"));
+        LatencyProxy proxy = new LatencyProxy(Integer.getInteger("proxy.listen-port", 6380), upstream.getHost(), upstream.getPort());
+        proxy.setLatency(millis(System.getProperty("proxy.latency-millis", "0")));
+        proxy.setJitter(millis(System.getProperty("proxy.jitter-millis", "0")));
+        long stallEvery = Long.getLong("proxy.stall-every-seconds", 0L);
+        if (stallEvery > 0) {
+            proxy.scheduleStalls(Duration.ofSeconds(stallEvery), millis(System.getProperty("proxy.stall-millis", "1000")));
+        }
+        long dropEvery = Long.getLong("proxy.drop-every-seconds", 0L);
+        if (dropEvery > 0) {
+            proxy.scheduleDrops(Duration.ofSeconds(dropEvery));
+        }
+        proxy.start();
+        System.out.println("延遲代理 " + proxy.getAddress() + " -> " + upstream + " 已啟動，Ctrl+C 結束");
+        Runtime.getRuntime().addShutdownHook(new Thread(proxy::close));
+        Thread.currentThread().join();
+    }
+
+    /**
+     * 以毫秒為單位的小數，例如 0.5。
+     */
+    public static Duration millis(String value) {
+        return Duration.ofNanos((long) (Double.parseDouble(value) * 1_000_000L));
+    }
+}